@@ -0,0 +1,224 @@
+/*
+ * Copyright 2001 Stewart Allen <stewart@neuron.com>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ */
+
+package com.neuron.app.scramble;
+
+/**
+ * Immutable letter counts for a-z packed four bits to a letter, a-m in
+ * one long and n-z in the other. Subset, difference and equality work a
+ * whole long at a time, so testing whether one set of letters can be
+ * spelled from another never loops over letters or allocates.
+ * <p>
+ * A count can be at most 15. That covers every dictionary word and the
+ * pool, whose largest letter has 12 tiles; of() refuses anything else.
+ */
+final class LetterHistogram
+{
+	// ---( static fields )---
+	public final static LetterHistogram EMPTY = new LetterHistogram(0, 0, 0);
+
+	private final static int SPLIT = 13;
+	private final static long LOW = 0x0f0f0f0f0f0f0f0fL;
+	private final static long GUARD = 0x1010101010101010L;
+	private final static long BYTES = 0x0101010101010101L;
+
+	// ---( static methods )---
+	/**
+	 * @return the letters of word or null if it holds anything other than
+	 * a-z or more than 15 of one letter
+	 */
+	public static LetterHistogram of(byte word[])
+	{
+		return of(word, word.length);
+	}
+
+	public static LetterHistogram of(byte word[], int len)
+	{
+		long lo = 0;
+		long hi = 0;
+		int mask = 0;
+		for (int i=0; i<len; i++)
+		{
+			int l = word[i] - 'a';
+			if (l < 0 || l > 25)
+			{
+				return null;
+			}
+			if (l < SPLIT)
+			{
+				if (((lo >>> (l * 4)) & 15) == 15)
+				{
+					return null;
+				}
+				lo += 1L << (l * 4);
+			}
+			else
+			{
+				if (((hi >>> ((l - SPLIT) * 4)) & 15) == 15)
+				{
+					return null;
+				}
+				hi += 1L << ((l - SPLIT) * 4);
+			}
+			mask |= 1 << l;
+		}
+		return new LetterHistogram(lo, hi, mask);
+	}
+
+	/**
+	 * @return true if no nibble of a is larger than the same nibble of b
+	 */
+	private static boolean fits(long a, long b)
+	{
+		// spread even and odd nibbles into bytes with a guard bit above
+		// each, a lane that borrows clears its guard
+		long even = ((b & LOW) | GUARD) - (a & LOW);
+		long odd = (((b >>> 4) & LOW) | GUARD) - ((a >>> 4) & LOW);
+		return ((even & odd) & GUARD) == GUARD;
+	}
+
+	private static int sum(long v)
+	{
+		return (int)((((v & LOW) + ((v >>> 4) & LOW)) * BYTES) >>> 56);
+	}
+
+	/**
+	 * @return a bit for each nibble of v that is not zero
+	 */
+	private static int nonZero(long v)
+	{
+		int mask = 0;
+		for (int i=0; v != 0; i++, v >>>= 4)
+		{
+			if ((v & 15) != 0)
+			{
+				mask |= 1 << i;
+			}
+		}
+		return mask;
+	}
+
+	// ---( instance fields )---
+	private final long lo;
+	private final long hi;
+	private final int mask;
+
+	// ---( constructors )---
+	private LetterHistogram(long lo, long hi, int mask)
+	{
+		this.lo = lo;
+		this.hi = hi;
+		this.mask = mask;
+	}
+
+	// ---( instance methods )---
+	/**
+	 * @return how many of letter (0 = a) there are
+	 */
+	public int count(int letter)
+	{
+		if (letter < SPLIT)
+		{
+			return (int)(lo >>> (letter * 4)) & 15;
+		}
+		return (int)(hi >>> ((letter - SPLIT) * 4)) & 15;
+	}
+
+	/**
+	 * @return the total number of letters
+	 */
+	public int size()
+	{
+		return sum(lo) + sum(hi);
+	}
+
+	/**
+	 * @return a bit for each letter present, a in the lowest bit
+	 */
+	public int mask()
+	{
+		return mask;
+	}
+
+	public boolean isEmpty()
+	{
+		return mask == 0;
+	}
+
+	/**
+	 * @return true if every letter here, with repeats, is also in outer
+	 */
+	public boolean isSubsetOf(LetterHistogram outer)
+	{
+		return (mask & ~outer.mask) == 0 && fits(lo, outer.lo) && fits(hi, outer.hi);
+	}
+
+	/**
+	 * @param less letters to remove, which must be a subset of these
+	 * @return these letters without less
+	 */
+	public LetterHistogram minus(LetterHistogram less)
+	{
+		if (!less.isSubsetOf(this))
+		{
+			throw new IllegalArgumentException(less+" is not within "+this);
+		}
+		long nlo = lo - less.lo;
+		long nhi = hi - less.hi;
+		return new LetterHistogram(nlo, nhi, nonZero(nlo) | (nonZero(nhi) << SPLIT));
+	}
+
+	/**
+	 * @return these letters with one more of letter (0 = a)
+	 */
+	public LetterHistogram plus(int letter)
+	{
+		if (count(letter) == 15)
+		{
+			throw new IllegalStateException("too many '"+(char)('a' + letter)+"' in "+this);
+		}
+		if (letter < SPLIT)
+		{
+			return new LetterHistogram(lo + (1L << (letter * 4)), hi, mask | (1 << letter));
+		}
+		return new LetterHistogram(lo, hi + (1L << ((letter - SPLIT) * 4)), mask | (1 << letter));
+	}
+
+	public int hashCode()
+	{
+		long h = lo * 0x9e3779b97f4a7c15L + hi;
+		return (int)(h ^ (h >>> 32));
+	}
+
+	public boolean equals(Object o)
+	{
+		if (o instanceof LetterHistogram)
+		{
+			LetterHistogram h = (LetterHistogram)o;
+			return h.lo == lo && h.hi == hi;
+		}
+		return false;
+	}
+
+	/**
+	 * @return the letters in alphabetical order
+	 */
+	public String toString()
+	{
+		StringBuffer sb = new StringBuffer();
+		for (int l=0; l<26; l++)
+		{
+			for (int n=count(l); n>0; n--)
+			{
+				sb.append((char)('a' + l));
+			}
+		}
+		return sb.toString();
+	}
+}
@@ -10,6 +10,7 @@
 package com.neuron.app.scramble;
 
 // ---( imports )---
+import java.io.BufferedOutputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
@@ -18,6 +19,11 @@ import java.lang.reflect.InvocationTargetException;
 import java.net.Socket;
 import java.net.SocketException;
 import java.util.StringTokenizer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class Link 
 {
@@ -31,6 +37,19 @@ public class Link
 		"<allow-access-from domain=\"mrallen.com\" to-ports=\"1234-1236\"/>"+
 		"</cross-domain-policy>\n\0\0\0").getBytes();
 
+	// messages a link may have waiting before it is dropped
+	private final static int MAXBACKLOG = Integer.getInteger("backlog", 1000).intValue();
+
+	// sockets are written from here so a client that stops reading
+	// stalls its own writer and not the thread that sent to it
+	private final static ExecutorService writers = Executors.newCachedThreadPool(new ThreadFactory() {
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "LinkWriter");
+			t.setDaemon(true);
+			return t;
+		}
+	});
+
 	// ---( static methods )---
 	public void log(String msg) {
 		System.out.println(cname+" :: "+msg);
@@ -81,8 +100,50 @@ public class Link
 	private Socket link;
 	private volatile boolean running;
 	private long lastRecv;
+	private long arrival;
 	private InputStream in;
 	private OutputStream out;
+	private ConcurrentLinkedQueue outbox = new ConcurrentLinkedQueue();
+	private AtomicInteger unsent = new AtomicInteger();
+
+	/**
+	 * Writes what sendCommand() queued and flushes once per batch. unsent
+	 * counts queued messages not yet picked up, so only the send that
+	 * raises it from zero starts a flush. A write blocked on a full
+	 * socket ends when the link is closed, by the backlog check or by
+	 * the server's staleness kick.
+	 */
+	private Runnable flush = new Runnable() {
+		public void run()
+		{
+			int missed = 1;
+			do
+			{
+				try
+				{
+					byte msg[];
+					while ((msg = (byte[])outbox.poll()) != null)
+					{
+						out.write(msg);
+					}
+					out.flush();
+				}
+				catch (IOException ex)
+				{
+					// leave unsent raised so nothing is scheduled again
+					outbox.clear();
+					if (running)
+					{
+						log("link down : "+lname+" : "+ex);
+						linkDown(true);
+					}
+					return;
+				}
+				missed = unsent.addAndGet(-missed);
+			}
+			while (missed != 0);
+		}
+	};
 
 	// ---( instance methods )---
 	public String toString() {
@@ -106,6 +167,14 @@ public class Link
 	public void setFresh() {
 		lastRecv = System.currentTimeMillis();
 	}
+
+	/**
+	 * @return System.nanoTime() when the command being dispatched was
+	 * read off the socket
+	 */
+	public long getArrival() {
+		return arrival;
+	}
 	
 	public synchronized final void setup(Socket sock)
 		throws IOException, InterruptedException
@@ -116,7 +185,7 @@ public class Link
 		link = sock;
 		lname = sock.getRemoteSocketAddress().toString();
 		in = sock.getInputStream();
-		out = sock.getOutputStream();
+		out = new BufferedOutputStream(sock.getOutputStream());
 		new Thread() {
 			public void run() {
 				ByteArrayOutputStream buf = new ByteArrayOutputStream();
@@ -232,18 +301,28 @@ public class Link
 			return;
 		}
 		try {
-			new Command(cmd,args).send();
+			outbox.offer(new Command(cmd,args).getBytes());
 		} catch (IOException ex) {
-			log("link down : "+lname+" : "+ex);
-			linkDown(true);
-		} catch (Exception ex) {
 			ex.printStackTrace();
+			return;
+		}
+		int n = unsent.getAndIncrement();
+		if (n == 0)
+		{
+			writers.execute(flush);
+		}
+		else
+		if (n == MAXBACKLOG)
+		{
+			log("link down : "+lname+" : "+n+" messages unsent");
+			linkDown(true);
 		}
 	}
 
 	// ---( interface methods )---
 	public void recvData(byte data[], int off, int len) {
 //		dump("recvData", data);
+		arrival = System.nanoTime();
 		setFresh();
 		try {
 			String cmd = new String(data, off, len, "UTF8");
@@ -304,11 +383,10 @@ public class Link
 			return sb.toString();
 		}
 		
-		public void send()
-			throws IOException, InterruptedException
+		public byte[] getBytes()
+			throws IOException
 		{
-			out.write(toString().getBytes("UTF8"));
-			out.flush();
+			return toString().getBytes("UTF8");
 		}
 	}
 }
@@ -0,0 +1,30 @@
+/*
+ * Copyright 2001 Stewart Allen <stewart@neuron.com>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ */
+
+package com.neuron.app.scramble;
+
+/**
+ * The inner loop of the histogram scan over one block of words, for
+ * backends that need classes the rest of the server does not. The
+ * server falls back to its own byte loops when no kernel loads.
+ */
+interface ScanKernel
+{
+	/**
+	 * Marks which words of a block fit. For each word j in 0..len the
+	 * byte bad[j] is left negative if the word's length is outside
+	 * lo..hi or it has more of some letter l than have[l], and is left
+	 * zero or positive if it fits.
+	 *
+	 * @param counts per letter, the count of that letter in each word
+	 * @param lengths the length of each word, zero for words never found
+	 * @param start the id of the first word of the block
+	 */
+	public void scan(byte counts[][], byte lengths[], int start, int len, byte have[], byte lo, byte hi, byte bad[]);
+}
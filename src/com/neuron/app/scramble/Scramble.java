@@ -10,29 +10,51 @@
 package com.neuron.app.scramble;
 
 // ---( imports )---
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.lang.ref.SoftReference;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * TODO:
  *
  * - BOT: try more than one iteration of possibilities (ss.words) if more advanced
  * - BOT: leaving during endgame does not terminate play properly? -- test
- * - add permutations of word/word to findWord check list
  * - verify that multi-word steal matches takes longest to shortest
  * - sometimes says not in pot when it is - perhaps b/c below
  * -   also intermittent bug w/ player leaving and words still around
@@ -59,7 +81,16 @@ public class Scramble
 	
 	private final static boolean startServer = System.getProperty("server","1").equals("1");
 	private final static boolean startBots = System.getProperty("bots","1").equals("1");
+	private final static boolean letterIndex = System.getProperty("index","anagram").equals("letters");
+	private final static String dictDir = System.getProperty("dicts");
+	private final static int cacheSize = Integer.getInteger("cache", 4096).intValue();
+	private final static boolean scanWithin = System.getProperty("within","trie").equals("scan");
+	private final static ScanKernel scanKernel = System.getProperty("vector","1").equals("1") ? loadKernel("com.neuron.app.scramble.VectorScanKernel") : null;
+	private final static String preload = System.getProperty("preload");
+	private final static String adminKey = System.getProperty("admin");
 	private final static String gameHost = System.getProperty("host","localhost");
+	private final static int loopCount = Integer.getInteger("loops", Runtime.getRuntime().availableProcessors()).intValue();
+	private final static int takeWindow = Integer.getInteger("takewindow", 0).intValue();
 
 	private final static String BEGINNER_GAME_1 = "Beginner Training 1";
 	private final static String BEGINNER_GAME_2 = "Beginner Training 2";
@@ -74,11 +105,71 @@ public class Scramble
 
 	private final static SimpleDateFormat format = new SimpleDateFormat ("yyMMdd-hhmmss");
 	private final static Random random = new Random(System.currentTimeMillis());
+	private final static long letterKey[] = new long[26];
+
+	private final static int SDICT_MAGIC   = 0x53444354;	// "SDCT"
+	private final static int SDICT_VERSION = 2;
+	private final static int SDICT_HEADER  = 40;
+
+	static
+	{
+		// fixed seed so that signatures are stable between runs
+		Random r = new Random(0x5c7a3b1eL);
+		for (int i=0; i<letterKey.length; i++)
+		{
+			letterKey[i] = r.nextLong() | 1;
+		}
+	}
+
+	/**
+	 * @return the named scan kernel or null if it was not built or needs
+	 * a module this VM was not started with
+	 */
+	private static ScanKernel loadKernel(String name)
+	{
+		try
+		{
+			return (ScanKernel) Class.forName(name).getDeclaredConstructor().newInstance();
+		}
+		catch (Throwable t)
+		{
+			return null;
+		}
+	}
+
+	private static long keyCheck()
+	{
+		long check = 0;
+		for (int i=0; i<letterKey.length; i++)
+		{
+			check = check * 31 + letterKey[i];
+		}
+		return check;
+	}
 
 	// ---( static methods )---
 	public static void main(String args[])
 		throws Exception
 	{
+		if (args.length > 0 && args[0].equals("compile"))
+		{
+			if (args.length < 3)
+			{
+				System.out.println("usage: Scramble compile <group.sdict> <word list> [<word list> ...]");
+				return;
+			}
+			String res[] = new String[args.length-2];
+			System.arraycopy(args,2,res,0,res.length);
+			new Scramble().compile(new File(args[1]), res);
+			return;
+		}
+		if (args.length > 0 && args[0].equals("bench"))
+		{
+			Scramble s = new Scramble();
+			s.addDictionaries();
+			s.bench(args.length > 1 ? args[1] : "default", args.length > 2 ? Integer.parseInt(args[2]) : 20000);
+			return;
+		}
 		Scramble s = new Scramble(args.length < 1 ? 1234 : Integer.parseInt(args[0]));
 		/*
 		s.getWords("teh").printWords();
@@ -115,32 +206,48 @@ public class Scramble
 	}
 	
 	// ---( constructors )---
+	private Scramble ()
+	{
+	}
+
 	public Scramble (int port)
 		throws Exception
 	{
 		debug("Scramble Server v"+VERSION);
 		sport = port;
-		comp = new WordComp();
-		dict = new HashMap();
-		WordSource twl = new WordSource("/res/words/us-english-twl", true);
-		WordSource sowpods = new WordSource("/res/words/uk-english-sowpods", true);
-		WordSource ods = new WordSource("/res/words/french-ods", false);
-		WordSource zingarelli = new WordSource("/res/words/italian-zingarelli", false);
-		dict.put("twl", twl);
-		dict.put("ods", ods);
-		dict.put("default", twl);
-		dict.put("sowpods", sowpods);
-		dict.put("zingarelli", zingarelli);
-		dict.put("us english", twl);
-		dict.put("uk english", sowpods);
-		dict.put("french", ods);
-		dict.put("italian", zingarelli);
+		loops = new ScheduledThreadPoolExecutor[Math.max(1, loopCount)];
+		for (int i=0; i<loops.length; i++)
+		{
+			final String lname = "GameLoop-"+i;
+			loops[i] = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+				public Thread newThread(Runnable r)
+				{
+					Thread t = new Thread(r, lname);
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+		addDictionaries();
+		if (preload != null)
+		{
+			dict.preload(preload.equals("all") ? null : preload.split(","));
+		}
 		if (startServer) {
 			File dataDir = new File("data/"+sport);
 			dataDir.mkdirs();
 		}
 	}
 
+	private void addDictionaries()
+	{
+		dict = new Dictionaries();
+		dict.add("english", "/res/words/us-english-twl", true, new String[] { "twl", "default", "us english" });
+		dict.add("english", "/res/words/uk-english-sowpods", true, new String[] { "sowpods", "uk english" });
+		dict.add("french", "/res/words/french-ods", false, new String[] { "ods", "french" });
+		dict.add("italian", "/res/words/italian-zingarelli", false, new String[] { "zingarelli", "italian" });
+	}
+
 	public void debug(String msg)
 	{
 		System.out.println(format.format(new Date()).concat(" | ").concat(msg));
@@ -149,9 +256,16 @@ public class Scramble
 	// ---( instance fields )---
 	private int sport;
 	private long time;
-	private WordComp comp;
 	private MetaServer server;
-	private HashMap dict;
+	private Dictionaries dict;
+	private ScheduledThreadPoolExecutor loops[];
+	// one reusable answer per thread, shared by every source so that an
+	// idle thread holds at most the last source it queried
+	private ThreadLocal queries = new ThreadLocal() {
+		protected Object initialValue() {
+			return new SolutionSet(null);
+		}
+	};
 
 	// ---( instance methods )---
 	private void startTimer()
@@ -164,6 +278,56 @@ public class Scramble
 		return System.currentTimeMillis()-time;
 	}
 
+	/**
+	 * @return the single threaded event loop that runs the game with
+	 * this name. A game stays on one loop for its whole life, so its
+	 * deals, takes and broadcasts always run on the same thread. A
+	 * broadcast only queues on each Link, whose own writer does the
+	 * socket I/O, so a client that stops reading cannot stall a loop.
+	 */
+	private ScheduledThreadPoolExecutor loopFor(String game)
+	{
+		int h = game.hashCode();
+		return loops[((h ^ (h >>> 16)) & 0x7fffffff) % loops.length];
+	}
+
+	/**
+	 * A piece of work over a range of items, see parallel().
+	 */
+	private abstract class Slice
+	{
+		abstract void run(int from, int to);
+	}
+
+	/**
+	 * Splits 0..count into slices of at least grain items, runs them on
+	 * the common fork-join pool and returns once every slice is done.
+	 */
+	private void parallel(int count, int grain, final Slice task)
+	{
+		int parts = Math.min(count / Math.max(grain, 1), ForkJoinPool.getCommonPoolParallelism() * 4);
+		if (parts <= 1)
+		{
+			task.run(0, count);
+			return;
+		}
+		ForkJoinTask jobs[] = new ForkJoinTask[parts];
+		for (int p=0; p<parts; p++)
+		{
+			final int from = (int)((long)count * p / parts);
+			final int to = (int)((long)count * (p+1) / parts);
+			jobs[p] = ForkJoinPool.commonPool().submit(new Runnable() {
+				public void run() {
+					task.run(from, to);
+				}
+			});
+		}
+		for (int p=0; p<parts; p++)
+		{
+			jobs[p].join();
+		}
+	}
+
 	public void startServer()
 	{
 		if (server == null)
@@ -173,179 +337,2603 @@ public class Scramble
 		}
 	}
 
+	/**
+	 * Parses word lists into one shared store and writes it out in the
+	 * binary format that the registry maps when started with
+	 * -Ddicts=&lt;dir&gt;. The file name without .sdict is the group name.
+	 */
+	public void compile(File file, String res[])
+		throws IOException
+	{
+		String group = file.getName();
+		if (group.endsWith(".sdict"))
+		{
+			group = group.substring(0, group.length()-6);
+		}
+		WordStore store = new WordStore(group);
+		WordSource sources[] = new WordSource[res.length];
+		for (int i=0; i<res.length; i++)
+		{
+			sources[i] = store.load(res[i], false);
+		}
+		store.save(file, sources);
+		debug("compiled "+store.numWords()+" words to "+file+" ("+file.length()+" bytes)");
+	}
+
+	/**
+	 * Times the lookup backends against each other on one dictionary
+	 * with the result cache off. Exact lookups go through the index
+	 * picked with -Dindex and through the histogram scan, pool lookups
+	 * through the sub-anagram trie and the histogram scan. The scan is
+	 * timed with the byte loops and again with the vector kernel if one
+	 * loaded.
+	 */
+	public void bench(String name, int rounds)
+		throws IOException
+	{
+		WordSource source = dict.get(name);
+		source.cache = new ResultCache(0);
+		AnagramIndex idx = source.store.anagrams;
+		Random r = new Random(1);
+		byte words[][] = new byte[rounds][];
+		int bags[][] = new int[rounds][26];
+		int pools[][] = new int[rounds][26];
+		for (int i=0; i<rounds; i++)
+		{
+			words[i] = source.getWord(benchWord(source, r));
+			for (int j=0; j<words[i].length; j++)
+			{
+				bags[i][words[i][j]-base]++;
+			}
+			// pools of 8 letters drawn from the letters of real words
+			for (int left=8; left > 0; )
+			{
+				byte w[] = source.getWord(benchWord(source, r));
+				for (int j=0; j<w.length && left > 0; j++, left--)
+				{
+					pools[i][w[j]-base]++;
+				}
+			}
+		}
+		HistogramScan scan = idx.histograms();
+		SubAnagramTrie trie = idx.subAnagrams();
+		SolutionSet ss = new SolutionSet(source);
+		int out[] = new int[source.numWords()];
+		for (int pass=0; pass<2; pass++)
+		{
+			// the first pass only warms up the JIT
+			long start = System.nanoTime();
+			long found = 0;
+			for (int i=0; i<rounds; i++)
+			{
+				ss.setWord(words[i]);
+				found += ss.size();
+			}
+			benchReport(pass, "exact "+(letterIndex ? "letters" : "anagram"), rounds, start, found);
+			start = System.nanoTime();
+			found = 0;
+			for (int i=0; i<rounds; i++)
+			{
+				found += scan.find(source, bags[i], words[i].length, words[i].length, out, out.length, null);
+			}
+			benchReport(pass, "exact scan", rounds, start, found);
+			if (scanKernel != null)
+			{
+				start = System.nanoTime();
+				found = 0;
+				for (int i=0; i<rounds; i++)
+				{
+					found += scan.find(source, bags[i], words[i].length, words[i].length, out, out.length, scanKernel);
+				}
+				benchReport(pass, "exact scan "+scanKernel, rounds, start, found);
+			}
+			start = System.nanoTime();
+			found = 0;
+			for (int i=0; i<rounds; i++)
+			{
+				found += trie.find(source, pools[i], 2, 8, out, out.length);
+			}
+			benchReport(pass, "pool trie", rounds, start, found);
+			start = System.nanoTime();
+			found = 0;
+			for (int i=0; i<rounds; i++)
+			{
+				found += scan.find(source, pools[i], 2, 8, out, out.length, null);
+			}
+			benchReport(pass, "pool scan", rounds, start, found);
+			if (scanKernel != null)
+			{
+				start = System.nanoTime();
+				found = 0;
+				for (int i=0; i<rounds; i++)
+				{
+					found += scan.find(source, pools[i], 2, 8, out, out.length, scanKernel);
+				}
+				benchReport(pass, "pool scan "+scanKernel, rounds, start, found);
+			}
+		}
+	}
+
+	private int benchWord(WordSource source, Random r)
+	{
+		int id;
+		do
+		{
+			id = r.nextInt(source.store.numWords());
+		}
+		while (!source.isMember(id));
+		return id;
+	}
+
+	private void benchReport(int pass, String what, int rounds, long start, long found)
+	{
+		if (pass > 0)
+		{
+			long ns = System.nanoTime() - start;
+			debug("bench "+what+" : "+rounds+" lookups in "+(ns/1000000)+"ms, "+(ns/rounds/1000)+"us each, "+found+" words found");
+		}
+	}
+
 	// ---( interface methods )---
 
 	// ----------------------------------------------------------------------
-	// ---( INNER CLASS WordSource )---
+	// ---( INNER CLASS Dictionaries )---
 	// ----------------------------------------------------------------------
-	private class WordSource {
-		private LetterSpace lists[];
-		private byte words[][];
-		private int index;
-		private String resource;
-		private boolean noPlurals;
-		
-		public String toString() {
-			return "Words("+resource+")";
+	/**
+	 * Maps dictionary names to word lists that are loaded the first time
+	 * a game asks for them. Lists in the same group share one WordStore.
+	 * Loaded sources and stores are only softly held here, so once no game
+	 * or bot refers to them the collector may reclaim them under memory
+	 * pressure and they are loaded again on the next request.
+	 */
+	private class Dictionaries
+	{
+		private HashMap names = new HashMap();
+		private HashMap stores = new HashMap();
+		private HashSet reloading = new HashSet();
+
+		public synchronized void add(String group, String res, boolean noplurals, String alias[])
+		{
+			Dictionary d = new Dictionary(group, res, noplurals);
+			for (int i=0; i<alias.length; i++)
+			{
+				names.put(alias[i], d);
+			}
 		}
-		
-		public boolean noPlurals() {
-			return noPlurals;
+
+		private synchronized Dictionary lookup(String name)
+		{
+			return (Dictionary) names.get(name.toLowerCase());
 		}
-		
-		WordSource(String res, boolean noplurals) throws IOException {
-			noPlurals = noplurals;
-			resource = res;
-			lists = new LetterSpace[26];
-			words = new byte[1000][];
-			for (int i=0; i<26; i++)
+
+		/**
+		 * @throws IOException if the name is unknown or its word list
+		 * cannot be loaded
+		 */
+		public WordSource get(String name) throws IOException
+		{
+			Dictionary d = lookup(name);
+			if (d == null)
 			{
-				lists[i] = new LetterSpace(i);
+				throw new FileNotFoundException("no dictionary named '"+name+"'");
 			}
-			byte word[] = new byte[100];
-			byte buf[] = new byte[1024];
-			int blen = 0;
-			int wlen = 0;
-			InputStream in = getClass().getResourceAsStream(res);
-			if (in == null)
+			return d.get();
+		}
+
+		/**
+		 * Loads the named dictionaries, or all of them if names is null,
+		 * each on its own thread. Lists in one group still load one after
+		 * the other since they merge into the same store.
+		 */
+		public void preload(String names[])
+		{
+			final HashSet todo = new HashSet();
+			synchronized (this)
 			{
-				throw new RuntimeException("missing words database "+res);
+				if (names == null)
+				{
+					todo.addAll(this.names.values());
+				}
+				for (int i=0; names != null && i<names.length; i++)
+				{
+					Dictionary d = lookup(names[i].trim());
+					if (d == null)
+					{
+						debug("preload : no dictionary named '"+names[i]+"'");
+						continue;
+					}
+					todo.add(d);
+				}
 			}
-			startTimer();
-			while ( (blen = in.read(buf)) >= 0 )
-			{
-				for (int pos=0; pos<blen; pos++)
+			new Thread("Preload") {
+				public void run()
 				{
-					switch (buf[pos])
+					long start = System.currentTimeMillis();
+					ArrayList threads = new ArrayList();
+					for (Iterator i = todo.iterator(); i.hasNext(); )
 					{
-						case '\r':
-							break;
-						case '\n':
-							byte save[] = new byte[wlen];
-							System.arraycopy(word,0,save,0,wlen);
-							addWord(save);
-							for (int i=0; i<26; i++)
+						final Dictionary d = (Dictionary) i.next();
+						Thread t = new Thread("Preload "+d.resource) {
+							public void run()
 							{
-								int repeat = 0;
-								for (int j=0; j<wlen; j++)
+								try
 								{
-									if (save[j] - base == i)
-									{
-										repeat++;
-									}
+									d.get();
 								}
-								if (repeat > 0)
+								catch (IOException ex)
 								{
-									lists[i].addWord(wlen,index-1,repeat);
+									debug("preload of "+d.resource+" failed : "+ex);
 								}
 							}
-							wlen = 0;
-							break;
-						default:
-							word[wlen++] = buf[pos];
-							break;
+						};
+						t.start();
+						threads.add(t);
+					}
+					for (Iterator i = threads.iterator(); i.hasNext(); )
+					{
+						try { ((Thread)i.next()).join(); } catch (InterruptedException ex) { }
 					}
+					debug("preloaded "+todo.size()+" dictionaries in "+(System.currentTimeMillis()-start)+"ms");
 				}
-			}
-			debug("loaded dictionary in "+checkTimer()+"ms");
+			}.start();
 		}
-		
+
 		/**
-		 * Given a set of letters (word), return all valid word
-		 * permutations <b>of the same length</b> in the dictionary.
+		 * Rebuilds every list in the named dictionary's group from its
+		 * word list into a new store, off the caller's thread. When all
+		 * of them have loaded they replace the current versions, which
+		 * games keep using until their next setup(). Compiled files are
+		 * not used since the point is to pick up edited word lists.
 		 *
-		 * @param word word or set of letters
+		 * @return false if the name is unknown or its group is already
+		 * being reloaded
 		 */
-		public SolutionSet getWords(String word)
+		public boolean reload(String name)
 		{
-			return getWords(word.getBytes());
+			Dictionary d = lookup(name);
+			if (d == null)
+			{
+				return false;
+			}
+			final String group = d.group;
+			final ArrayList todo = new ArrayList();
+			synchronized (this)
+			{
+				if (!reloading.add(group))
+				{
+					return false;
+				}
+				for (Iterator i = new HashSet(names.values()).iterator(); i.hasNext(); )
+				{
+					Dictionary g = (Dictionary) i.next();
+					if (g.group.equals(group))
+					{
+						todo.add(g);
+					}
+				}
+			}
+			new Thread("Reload "+group) {
+				public void run()
+				{
+					long start = System.currentTimeMillis();
+					try
+					{
+						WordStore store = new WordStore(group);
+						WordSource fresh[] = new WordSource[todo.size()];
+						for (int i=0; i<fresh.length; i++)
+						{
+							Dictionary g = (Dictionary) todo.get(i);
+							fresh[i] = store.load(g.resource, g.noPlurals);
+						}
+						synchronized (Dictionaries.this)
+						{
+							stores.put(group, new SoftReference(store));
+						}
+						for (int i=0; i<fresh.length; i++)
+						{
+							((Dictionary) todo.get(i)).swap(fresh[i]);
+						}
+						debug("reloaded "+group+" dictionaries in "+(System.currentTimeMillis()-start)+"ms");
+					}
+					catch (IOException ex)
+					{
+						debug("reload of "+group+" failed, keeping the current words : "+ex);
+					}
+					finally
+					{
+						synchronized (Dictionaries.this)
+						{
+							reloading.remove(group);
+						}
+					}
+				}
+			}.start();
+			return true;
 		}
 
-		public SolutionSet getWords(byte word[])
+		/**
+		 * @return one line of statistics for each loaded dictionary
+		 */
+		public String[] getStats()
 		{
-			return new SolutionSet(this, word);
+			HashSet all;
+			synchronized (this)
+			{
+				all = new HashSet(names.values());
+			}
+			ArrayList stats = new ArrayList();
+			for (Iterator i = all.iterator(); i.hasNext(); )
+			{
+				WordSource source = ((Dictionary)i.next()).loaded();
+				if (source != null)
+				{
+					stats.add(source.getStats());
+				}
+			}
+			String s[] = new String[stats.size()];
+			stats.toArray(s);
+			return s;
 		}
 
-		public byte[] getWord(int index)
+		/**
+		 * @return the live store for a group. A new store maps the
+		 * group's compiled file when there is one.
+		 */
+		public synchronized WordStore store(String group) throws IOException
 		{
-			return words[index];
+			SoftReference ref = (SoftReference) stores.get(group);
+			WordStore store = (ref != null ? (WordStore) ref.get() : null);
+			if (store == null)
+			{
+				store = new WordStore(group);
+				if (dictDir != null)
+				{
+					File file = new File(dictDir, group+".sdict");
+					if (file.exists())
+					{
+						store.map(file);
+					}
+				}
+				stores.put(group, new SoftReference(store));
+			}
+			return store;
 		}
+	}
 
-		public String getWordString(int index)
+	// ----------------------------------------------------------------------
+	// ---( INNER CLASS Dictionary )---
+	// ----------------------------------------------------------------------
+	private class Dictionary
+	{
+		private String group;
+		private String resource;
+		private boolean noPlurals;
+		private SoftReference ref;
+		private boolean loaded;
+
+		public Dictionary(String group, String res, boolean noplurals)
+		{
+			this.group = group;
+			this.resource = res;
+			this.noPlurals = noplurals;
+		}
+
+		/**
+		 * @return the source if it is loaded, without loading it
+		 */
+		public synchronized WordSource loaded()
 		{
-			return new String(words[index]);
+			return (ref != null ? (WordSource) ref.get() : null);
 		}
 
-		private void addWord(byte word[])
+		/**
+		 * Replaces the current version with a reloaded one.
+		 */
+		public synchronized void swap(WordSource source)
+		{
+			ref = new SoftReference(source);
+			loaded = true;
+		}
+
+		/**
+		 * Callers asking at the same time wait on the first one's load
+		 * rather than each building their own copy.
+		 */
+		public synchronized WordSource get() throws IOException
 		{
-			words[index++] = word;
-			if (index >= words.length)
+			WordSource source = (ref != null ? (WordSource) ref.get() : null);
+			if (source == null)
 			{
-				byte nwords[][] = new byte[words.length+1000][];
-				System.arraycopy(words,0,nwords,0,words.length);
-				words = nwords;
+				if (loaded)
+				{
+					debug("reloading evicted dictionary "+resource);
+				}
+				source = dict.store(group).load(resource, noPlurals);
+				if (source == null)
+				{
+					debug("compiled "+group+" dictionary does not have "+resource);
+					source = new WordStore(group).load(resource, noPlurals);
+				}
+				ref = new SoftReference(source);
+				loaded = true;
 			}
+			return source;
 		}
 	}
 
 	// ----------------------------------------------------------------------
-	// ---( INNER CLASS LetterSpace )---
+	// ---( INNER CLASS WordStore )---
 	// ----------------------------------------------------------------------
-	private class LetterSpace
+	/**
+	 * Holds every distinct word of one or more word lists exactly once.
+	 * Each list loaded into the store becomes a WordSource that sees the
+	 * store through a membership bitset, so lists that mostly overlap,
+	 * such as twl and sowpods, share their words and index.
+	 *
+	 * Words are only ever appended, so a word's id and spelling never
+	 * change. load() fills its own arena under the store's lock and then
+	 * publishes an immutable Words snapshot, and only after that the
+	 * rebuilt index, so games using one list are not disturbed while
+	 * another list is merged in.
+	 */
+	private class WordStore
 	{
-		private int letter;
-		private int words[][];
-		private int ptr[];
+		private String name;
+		// the arena load() appends to, only touched under the lock
+		private byte bytes[];
+		private int starts[];
+		private int index;
+		private HashMap mapped;
+		private volatile Words words;
+		private volatile LetterSpace lists[];
+		private volatile int order[][];
+		private volatile AnagramIndex anagrams;
 
-		public LetterSpace(int letter)
+		public WordStore(String name)
 		{
-			this.letter = letter;
-			this.words = new int[maxword][1000];
-			this.ptr = new int[maxword];
-			for (int i=0; i<maxword; i++)
-			{
-				ptr[i] = 0;
-			}
+			this.name = name;
+			this.bytes = new byte[65536];
+			this.starts = new int[8192];
+			this.words = new Words(new byte[0], new int[1], 0);
 		}
 
-		public void addWord(int len, int index, int repeat)
+		/**
+		 * The words as of the last load() or map(). Nothing in one is
+		 * changed after it is published, so a lookup that reads the
+		 * words field once sees arrays and a count that agree.
+		 */
+		private class Words
 		{
-			words[len][ptr[len]++] = (repeat << 24) | index;
-			if (ptr[len] >= words[len].length)
+			private final byte bytes[];
+			private final int starts[];
+			private final ByteBuffer arena;
+			private final IntBuffer offsets;
+			private final int count;
+
+			Words(byte bytes[], int starts[], int count)
 			{
-				int nwords[] = new int[words[len].length+1000];
-				System.arraycopy(words[len],0,nwords,0,words[len].length);
-				words[len] = nwords;
+				this.bytes = bytes;
+				this.starts = starts;
+				this.arena = null;
+				this.offsets = null;
+				this.count = count;
 			}
-		}
 
-		public void addMatch(SolutionSet set, int wlen, int repeat)
+			Words(ByteBuffer arena, IntBuffer offsets, int count)
+			{
+				this.bytes = null;
+				this.starts = null;
+				this.arena = arena;
+				this.offsets = offsets;
+				this.count = count;
+			}
+
+			int length(int id)
+			{
+				if (arena != null)
+				{
+					return offsets.get(id+1) - offsets.get(id);
+				}
+				return starts[id+1] - starts[id];
+			}
+
+			byte byteAt(int id, int pos)
+			{
+				if (arena != null)
+				{
+					return arena.get(offsets.get(id) + pos);
+				}
+				return bytes[starts[id] + pos];
+			}
+
+			byte[] copy(int id)
+			{
+				byte word[] = new byte[length(id)];
+				if (arena != null)
+				{
+					int off = offsets.get(id);
+					for (int i=0; i<word.length; i++)
+					{
+						word[i] = arena.get(off + i);
+					}
+				}
+				else
+				{
+					System.arraycopy(bytes, starts[id], word, 0, word.length);
+				}
+				return word;
+			}
+
+			boolean matches(int id, byte word[], int wlen)
+			{
+				if (length(id) != wlen)
+				{
+					return false;
+				}
+				if (arena == null)
+				{
+					int off = starts[id];
+					for (int i=0; i<wlen; i++)
+					{
+						if (bytes[off + i] != word[i])
+						{
+							return false;
+						}
+					}
+					return true;
+				}
+				int off = offsets.get(id);
+				for (int i=0; i<wlen; i++)
+				{
+					if (arena.get(off + i) != word[i])
+					{
+						return false;
+					}
+				}
+				return true;
+			}
+		}
+
+		public String toString()
+		{
+			return "Store("+name+")";
+		}
+
+		private String listName(String res)
+		{
+			return new File(res).getName();
+		}
+
+		/**
+		 * Merges a word list into the store.
+		 *
+		 * @return a source for the list or null if this store was mapped
+		 * from a compiled file that does not include it
+		 */
+		public synchronized WordSource load(String res, boolean noplurals) throws IOException
+		{
+			if (mapped != null)
+			{
+				BitSet bits = (BitSet) mapped.get(listName(res));
+				return bits == null ? null : new WordSource(this, res, noplurals, bits);
+			}
+			InputStream in = openWords(res);
+			if (in == null)
+			{
+				throw new FileNotFoundException("missing words database "+res);
+			}
+			long start = System.currentTimeMillis();
+			final byte data[] = readAll(in);
+			// one word per line
+			int lines = 0;
+			for (int pos=0; pos<data.length; pos++)
+			{
+				if (data[pos] == '\n')
+				{
+					lines++;
+				}
+			}
+			final int wstart[] = new int[lines];
+			final int wlen[] = new int[lines];
+			int longest = 0;
+			for (int pos=0, line=0; line<lines; pos++)
+			{
+				if (data[pos] == '\n')
+				{
+					int end = pos;
+					while (end > wstart[line] && data[end-1] == '\r')
+					{
+						end--;
+					}
+					wlen[line] = end - wstart[line];
+					longest = Math.max(longest, wlen[line]);
+					if (++line < lines)
+					{
+						wstart[line] = pos + 1;
+					}
+				}
+			}
+			// look up words already in the store from several threads
+			final AnagramIndex idx = anagrams;
+			final int known[] = new int[lines];
+			final int scratch = longest;
+			Arrays.fill(known, -1);
+			if (idx != null)
+			{
+				parallel(lines, 8192, new Slice() {
+					void run(int from, int to) {
+						byte word[] = new byte[scratch];
+						int letters[] = new int[26];
+						for (int i=from; i<to; i++)
+						{
+							System.arraycopy(data,wstart[i],word,0,wlen[i]);
+							known[i] = idx.indexOf(word, wlen[i], letters);
+						}
+					}
+				});
+			}
+			BitSet bits = new BitSet(index);
+			int added = 0;
+			for (int i=0; i<lines; i++)
+			{
+				int id = known[i];
+				if (id < 0)
+				{
+					addWord(data, wstart[i], wlen[i]);
+					id = index-1;
+					added++;
+				}
+				bits.set(id);
+			}
+			in.close();
+			if (added > 0)
+			{
+				trim();
+				words = new Words(bytes, starts, index);
+				reindex();
+			}
+			debug("loaded dictionary "+res+" in "+(System.currentTimeMillis()-start)+"ms ("+added+" of "+bits.cardinality()+" words new to "+name+", "+(footprint()/1024)+"KB)");
+			return new WordSource(this, res, noplurals, bits);
+		}
+
+		/**
+		 * Reads the rest of in in large chunks.
+		 */
+		private byte[] readAll(InputStream in) throws IOException
+		{
+			byte buf[] = new byte[256 * 1024];
+			int len = 0;
+			int got;
+			while ( (got = in.read(buf, len, buf.length - len)) >= 0 )
+			{
+				len += got;
+				if (len == buf.length)
+				{
+					byte nbuf[] = new byte[buf.length * 2];
+					System.arraycopy(buf,0,nbuf,0,len);
+					buf = nbuf;
+				}
+			}
+			byte data[] = new byte[len];
+			System.arraycopy(buf,0,data,0,len);
+			return data;
+		}
+
+		private InputStream openWords(String res) throws IOException
+		{
+			InputStream in = getClass().getResourceAsStream(res);
+			if (in == null && new File(res).exists())
+			{
+				in = new FileInputStream(res);
+			}
+			return in;
+		}
+
+		/**
+		 * Builds fresh indexes over the published words and publishes
+		 * them. Callers publish the words first, so a reader that sees
+		 * the new index also sees the words it names.
+		 */
+		private void reindex()
+		{
+			final int index = words.count;
+			if (letterIndex)
+			{
+				final LetterSpace nlists[] = new LetterSpace[26];
+				// each letter's lists are built on their own
+				parallel(26, 1, new Slice() {
+					void run(int from, int to) {
+						for (int l=from; l<to; l++)
+						{
+							nlists[l] = new LetterSpace(l);
+							for (int i=0; i<index; i++)
+							{
+								indexWord(nlists[l], i);
+							}
+						}
+					}
+				});
+				// per length, the letters from shortest list to longest
+				int norder[][] = new int[maxword][26];
+				int sort[] = new int[26];
+				for (int len=0; len<maxword; len++)
+				{
+					for (int i=0; i<26; i++)
+					{
+						sort[i] = (nlists[i].getLength(len) << 8) | i;
+					}
+					Arrays.sort(sort);
+					for (int i=0; i<26; i++)
+					{
+						norder[len][i] = sort[i] & 0xff;
+					}
+				}
+				for (int i=0; i<26; i++)
+				{
+					nlists[i].trim();
+				}
+				order = norder;
+				lists = nlists;
+			}
+			anagrams = new AnagramIndex(this);
+		}
+
+		private void indexWord(LetterSpace list, int id)
+		{
+			int wlen = wordLength(id);
+			if (wlen >= maxword)
+			{
+				return;
+			}
+			int repeat = 0;
+			for (int j=0; j<wlen; j++)
+			{
+				if (wordByte(id, j) - base == list.letter)
+				{
+					repeat++;
+				}
+			}
+			if (repeat > 0)
+			{
+				list.addWord(wlen,id,repeat);
+			}
+		}
+
+		/**
+		 * Maps a store written by save(). The words and the anagram index
+		 * are read in place from the file, so nothing is parsed and
+		 * processes on the same host share the pages.
+		 *
+		 * @return false if the file was written with different keys
+		 */
+		public synchronized boolean map(File file) throws IOException
+		{
+			long start = System.currentTimeMillis();
+			RandomAccessFile raf = new RandomAccessFile(file, "r");
+			ByteBuffer buf;
+			try {
+				buf = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+			} finally {
+				raf.close();
+			}
+			if (buf.getInt(0) != SDICT_MAGIC || buf.getInt(4) != SDICT_VERSION || buf.getLong(8) != keyCheck())
+			{
+				debug("ignoring stale dictionary "+file);
+				return false;
+			}
+			int count = buf.getInt(16);
+			int alen = buf.getInt(20);
+			int classes = buf.getInt(24);
+			int nslots = buf.getInt(28);
+			int nmembers = buf.getInt(32);
+			int nlists = buf.getInt(36);
+			int pos = SDICT_HEADER;
+			LongBuffer sigs = slice(buf, pos, classes * 8).asLongBuffer();
+			pos += classes * 8;
+			IntBuffer first = slice(buf, pos, (classes+1) * 4).asIntBuffer();
+			pos += (classes+1) * 4;
+			IntBuffer members = slice(buf, pos, nmembers * 4).asIntBuffer();
+			pos += nmembers * 4;
+			IntBuffer slots = slice(buf, pos, nslots * 4).asIntBuffer();
+			pos += nslots * 4;
+			IntBuffer offs = slice(buf, pos, (count+1) * 4).asIntBuffer();
+			pos += (count+1) * 4;
+			ByteBuffer data = slice(buf, pos, alen);
+			pos += alen;
+			HashMap lists = new HashMap();
+			for (int i=0; i<nlists; i++)
+			{
+				byte lname[] = new byte[buf.getInt(pos)];
+				pos += 4;
+				for (int j=0; j<lname.length; j++)
+				{
+					lname[j] = buf.get(pos++);
+				}
+				int nlongs = buf.getInt(pos);
+				pos += 4;
+				lists.put(new String(lname), BitSet.valueOf(slice(buf, pos, nlongs * 8).asLongBuffer()));
+				pos += nlongs * 8;
+			}
+			bytes = null;
+			starts = null;
+			index = count;
+			words = new Words(data, offs, count);
+			mapped = lists;
+			if (letterIndex)
+			{
+				reindex();
+			}
+			else
+			{
+				anagrams = new AnagramIndex(this, sigs, first, members, slots);
+			}
+			debug("mapped dictionary "+file+" "+lists.keySet()+" in "+(System.currentTimeMillis()-start)+"ms");
+			return true;
+		}
+
+		private ByteBuffer slice(ByteBuffer buf, int pos, int len)
+		{
+			ByteBuffer dup = buf.duplicate();
+			dup.position(pos);
+			dup.limit(pos + len);
+			return dup.slice();
+		}
+
+		/**
+		 * Writes the words, their anagram index and the membership of
+		 * each source in the layout read by map().
+		 */
+		public synchronized void save(File file, WordSource sources[]) throws IOException
+		{
+			AnagramIndex idx = anagrams;
+			Words w = words;
+			int index = w.count;
+			int alen = 0;
+			for (int i=0; i<index; i++)
+			{
+				alen += w.length(i);
+			}
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 65536));
+			try {
+				out.writeInt(SDICT_MAGIC);
+				out.writeInt(SDICT_VERSION);
+				out.writeLong(keyCheck());
+				out.writeInt(index);
+				out.writeInt(alen);
+				out.writeInt(idx.numClasses());
+				out.writeInt(idx.slots.limit());
+				out.writeInt(idx.members.limit());
+				out.writeInt(sources.length);
+				idx.write(out);
+				int off = 0;
+				out.writeInt(off);
+				for (int i=0; i<index; i++)
+				{
+					off += w.length(i);
+					out.writeInt(off);
+				}
+				if (w.arena != null)
+				{
+					for (int i=0; i<alen; i++)
+					{
+						out.write(w.arena.get(i));
+					}
+				}
+				else
+				{
+					out.write(w.bytes, 0, alen);
+				}
+				for (int i=0; i<sources.length; i++)
+				{
+					byte lname[] = listName(sources[i].resource).getBytes();
+					long bits[] = sources[i].members.toLongArray();
+					out.writeInt(lname.length);
+					out.write(lname);
+					out.writeInt(bits.length);
+					for (int j=0; j<bits.length; j++)
+					{
+						out.writeLong(bits[j]);
+					}
+				}
+			} finally {
+				out.close();
+			}
+		}
+
+		/**
+		 * Copies a word out of the arena. Lookups compare in place with
+		 * matches() and wordByte() instead.
+		 */
+		public byte[] getWord(int index)
+		{
+			return words.copy(index);
+		}
+
+		public String getWordString(int index)
+		{
+			Words w = words;
+			if (w.arena != null)
+			{
+				return new String(w.copy(index));
+			}
+			return new String(w.bytes, w.starts[index], w.length(index));
+		}
+
+		public int wordLength(int index)
+		{
+			return words.length(index);
+		}
+
+		public byte wordByte(int index, int pos)
+		{
+			return words.byteAt(index, pos);
+		}
+
+		/**
+		 * @return true if the word at index is spelled exactly like word
+		 */
+		public boolean matches(int index, byte word[])
+		{
+			return words.matches(index, word, word.length);
+		}
+
+		public boolean matches(int index, byte word[], int wlen)
+		{
+			return words.matches(index, word, wlen);
+		}
+
+		public int numWords()
+		{
+			return words.count;
+		}
+
+		/**
+		 * Appends a word to the arena. Both arrays grow by doubling so a
+		 * large list loads in linear time.
+		 */
+		private void addWord(byte word[], int wlen)
+		{
+			addWord(word, 0, wlen);
+		}
+
+		private void addWord(byte src[], int from, int wlen)
+		{
+			int off = starts[index];
+			if (off + wlen > bytes.length)
+			{
+				byte nbytes[] = new byte[Math.max(bytes.length * 2, off + wlen)];
+				System.arraycopy(bytes,0,nbytes,0,off);
+				bytes = nbytes;
+			}
+			if (index + 2 > starts.length)
+			{
+				int nstarts[] = new int[starts.length * 2];
+				System.arraycopy(starts,0,nstarts,0,index+1);
+				starts = nstarts;
+			}
+			System.arraycopy(src,from,bytes,off,wlen);
+			starts[index+1] = off + wlen;
+			index++;
+		}
+
+		/**
+		 * Cuts both arrays to size. A full array is always copied by the
+		 * next addWord(), so a published Words is never written to.
+		 */
+		private void trim()
+		{
+			int len = starts[index];
+			if (len < bytes.length)
+			{
+				byte nbytes[] = new byte[len];
+				System.arraycopy(bytes,0,nbytes,0,len);
+				bytes = nbytes;
+			}
+			if (index + 1 < starts.length)
+			{
+				int nstarts[] = new int[index + 1];
+				System.arraycopy(starts,0,nstarts,0,index+1);
+				starts = nstarts;
+			}
+		}
+
+		/**
+		 * @return approximate heap bytes held for the words and indexes
+		 */
+		public long footprint()
+		{
+			long size = 0;
+			Words w = words;
+			if (w.arena == null)
+			{
+				size += w.bytes.length + w.starts.length * 4;
+			}
+			AnagramIndex idx = anagrams;
+			if (idx != null)
+			{
+				size += idx.footprint();
+			}
+			LetterSpace ls[] = lists;
+			for (int i=0; ls != null && i<26; i++)
+			{
+				size += ls[i].footprint();
+			}
+			return size;
+		}
+	}
+
+	// ----------------------------------------------------------------------
+	// ---( INNER CLASS WordSource )---
+	// ----------------------------------------------------------------------
+	/**
+	 * One dictionary: the words of a WordStore that belong to one list.
+	 */
+	private class WordSource {
+		private WordStore store;
+		private BloomFilter filter;
+		private ResultCache cache = new ResultCache(cacheSize);
+		private BitSet members;
+		private int stems[];
+		private int size;
+		private String resource;
+		private boolean noPlurals;
+		
+		public String toString() {
+			return "Words("+resource+")";
+		}
+		
+		public boolean noPlurals() {
+			return noPlurals;
+		}
+		
+		WordSource(WordStore store, String res, boolean noplurals, BitSet members) {
+			this.store = store;
+			this.members = members;
+			this.size = members.cardinality();
+			this.noPlurals = noplurals;
+			this.resource = res;
+			this.filter = new BloomFilter(this);
+			if (noplurals)
+			{
+				findStems();
+			}
+		}
+
+		/**
+		 * Records for each word that is a plural of another word in this
+		 * dictionary the id of that singular. Plurals are tried as
+		 * word+s, then word+es after s/x/z/ch/sh, then y to ies and f or
+		 * fe to ves. Only pairs where both forms are words count.
+		 */
+		private void findStems()
+		{
+			long start = System.currentTimeMillis();
+			final int count = store.numWords();
+			stems = new int[count];
+			parallel(count, 8192, new Slice() {
+				void run(int from, int to) {
+					byte base[] = new byte[maxword+2];
+					int letters[] = new int[26];
+					for (int id=from; id<to; id++)
+					{
+						stems[id] = isMember(id) ? findStem(id, base, letters) : -1;
+					}
+				}
+			});
+			int plurals = 0;
+			for (int id=0; id<count; id++)
+			{
+				if (stems[id] >= 0)
+				{
+					plurals++;
+				}
+			}
+			debug("found "+plurals+" plurals in "+resource+" in "+(System.currentTimeMillis()-start)+"ms");
+		}
+
+		private int findStem(int id, byte base[], int letters[])
+		{
+			int wlen = store.wordLength(id);
+			if (wlen < 2 || wlen > maxword || store.wordByte(id, wlen-1) != 's')
+			{
+				return -1;
+			}
+			for (int i=0; i<wlen; i++)
+			{
+				base[i] = store.wordByte(id, i);
+			}
+			// cats -> cat
+			int stem = memberOf(base, wlen-1, letters);
+			if (stem >= 0 || wlen < 4 || base[wlen-2] != 'e')
+			{
+				return stem;
+			}
+			// boxes -> box, churches -> church
+			byte last = base[wlen-3];
+			if (last == 's' || last == 'x' || last == 'z' || (last == 'h' && (base[wlen-4] == 'c' || base[wlen-4] == 's')))
+			{
+				stem = memberOf(base, wlen-2, letters);
+				if (stem >= 0)
+				{
+					return stem;
+				}
+			}
+			// cities -> city
+			if (base[wlen-3] == 'i')
+			{
+				base[wlen-3] = 'y';
+				stem = memberOf(base, wlen-2, letters);
+				base[wlen-3] = 'i';
+				if (stem >= 0)
+				{
+					return stem;
+				}
+			}
+			// wolves -> wolf, knives -> knife
+			if (base[wlen-3] == 'v')
+			{
+				base[wlen-3] = 'f';
+				stem = memberOf(base, wlen-2, letters);
+				if (stem < 0)
+				{
+					stem = memberOf(base, wlen-1, letters);
+				}
+				base[wlen-3] = 'v';
+			}
+			return stem;
+		}
+
+		private int memberOf(byte word[], int wlen, int letters[])
+		{
+			int id = store.anagrams.indexOf(word, wlen, letters);
+			return (id >= 0 && isMember(id)) ? id : -1;
+		}
+
+		/**
+		 * @return the id of the singular word is the plural of, or -1 if
+		 * it is not a plural or plurals are allowed
+		 */
+		public int stemOf(int id)
+		{
+			return (stems != null && id >= 0 && id < stems.length) ? stems[id] : -1;
+		}
+
+		/**
+		 * @return the id of word in this dictionary or -1 if it is not
+		 * a word
+		 */
+		public int idOf(byte word[])
+		{
+			if (!filter.mightContain(word))
+			{
+				return -1;
+			}
+			SolutionSet ss = query(word);
+			for (int i=0; i<ss.size(); i++)
+			{
+				if (matches(ss.getWordId(i), word))
+				{
+					return ss.getWordId(i);
+				}
+			}
+			return -1;
+		}
+
+		/**
+		 * @return true if word is in this dictionary
+		 */
+		public boolean isWord(byte word[])
+		{
+			return idOf(word) >= 0;
+		}
+
+		public String getStats()
+		{
+			return this+" "+size+" words, "+filter+", "+cache;
+		}
+		
+		/**
+		 * Given a set of letters (word), return all valid word
+		 * permutations <b>of the same length</b> in the dictionary.
+		 *
+		 * @param word word or set of letters
+		 */
+		public SolutionSet getWords(String word)
+		{
+			return getWords(word.getBytes());
+		}
+
+		public SolutionSet getWords(byte word[])
+		{
+			return new SolutionSet(this, word);
+		}
+
+		/**
+		 * Same as getWords() but answers in this thread's reusable set
+		 * rather than a new one. The answer is only good until the
+		 * thread's next query on any source.
+		 */
+		public SolutionSet query(byte word[])
+		{
+			SolutionSet ss = (SolutionSet) queries.get();
+			ss.setSource(this);
+			ss.setWord(word);
+			return ss;
+		}
+
+		public boolean isMember(int index)
+		{
+			return members.get(index);
+		}
+
+		/**
+		 * Finds the words that can be made by adding one letter to word.
+		 *
+		 * @param letters the letters that may be added or null for any
+		 * @return the words made by adding each letter a..z, null for
+		 * letters that make none
+		 */
+		public String[][] getExtensions(String word, String letters)
+		{
+			AnagramIndex idx = store.anagrams;
+			int edges[] = new int[26];
+			int n = idx.extend(word.getBytes(), edges);
+			String ext[][] = new String[26][];
+			for (int i=0; i<n; i++)
+			{
+				int l = edges[i] >>> 24;
+				int c = edges[i] & 0xffffff;
+				if (letters != null && letters.indexOf(base + l) < 0)
+				{
+					continue;
+				}
+				int out[] = new int[idx.classSize(c)];
+				int found = idx.addMembers(this, c, out, 0, out.length);
+				if (found > 0)
+				{
+					ext[l] = new String[found];
+					for (int j=0; j<found; j++)
+					{
+						ext[l][j] = getWordString(out[j]);
+					}
+				}
+			}
+			return ext;
+		}
+
+		/**
+		 * Finds words of length min..max that can be spelled using the
+		 * letters of pool, each letter used at most as often as it appears.
+		 *
+		 * @param limit stop after finding this many words
+		 */
+		public String[] getWordsWithin(String pool, int min, int max, int limit)
+		{
+			int bag[] = new int[26];
+			byte b[] = pool.getBytes();
+			for (int i=0; i<b.length; i++)
+			{
+				int l = b[i] - base;
+				if (l >= 0 && l < 26)
+				{
+					bag[l]++;
+				}
+			}
+			int out[] = new int[limit];
+			int found = scanWithin ?
+				store.anagrams.histograms().find(this, bag, min, max, out, limit) :
+				store.anagrams.subAnagrams().find(this, bag, min, Math.min(max, maxword), out, limit);
+			String words[] = new String[found];
+			for (int i=0; i<found; i++)
+			{
+				words[i] = getWordString(out[i]);
+			}
+			return words;
+		}
+
+		public byte[] getWord(int index)
+		{
+			return store.getWord(index);
+		}
+
+		public String getWordString(int index)
+		{
+			return store.getWordString(index);
+		}
+
+		public boolean matches(int index, byte word[])
+		{
+			return store.matches(index, word);
+		}
+
+		public int numWords()
+		{
+			return size;
+		}
+	}
+
+	// ----------------------------------------------------------------------
+	// ---( INNER CLASS BloomFilter )---
+	// ----------------------------------------------------------------------
+	/**
+	 * Compact membership filter over the words of one source. A miss
+	 * means the word is definitely not in the source, so junk takes are
+	 * turned away with a few bit probes and no index lookup.
+	 */
+	private class BloomFilter
+	{
+		private final static int BITS_PER_WORD = 10;
+		private final static int HASHES = 7;
+
+		private long bits[];
+		private int mask;
+		private AtomicLong probes = new AtomicLong();
+		private AtomicLong rejects = new AtomicLong();
+
+		public BloomFilter(WordSource source)
+		{
+			int size = 64;
+			while (size < source.numWords() * BITS_PER_WORD)
+			{
+				size <<= 1;
+			}
+			bits = new long[size / 64];
+			mask = size - 1;
+			WordStore store = source.store;
+			for (int id = source.members.nextSetBit(0); id >= 0; id = source.members.nextSetBit(id+1))
+			{
+				long h = 0xcbf29ce484222325L;
+				int wlen = store.wordLength(id);
+				for (int i=0; i<wlen; i++)
+				{
+					h = (h ^ store.wordByte(id, i)) * 0x100000001b3L;
+				}
+				add(mix(h));
+			}
+		}
+
+		private long mix(long h)
+		{
+			h ^= h >>> 33;
+			h *= 0xff51afd7ed558ccdL;
+			h ^= h >>> 33;
+			return h;
+		}
+
+		private void add(long h)
+		{
+			int h1 = (int)h;
+			int h2 = (int)(h >>> 32) | 1;
+			for (int i=0; i<HASHES; i++)
+			{
+				int b = (h1 + i * h2) & mask;
+				bits[b >>> 6] |= 1L << b;
+			}
+		}
+
+		/**
+		 * @return false if word is definitely not in the source
+		 */
+		public boolean mightContain(byte word[])
+		{
+			long h = 0xcbf29ce484222325L;
+			for (int i=0; i<word.length; i++)
+			{
+				h = (h ^ word[i]) * 0x100000001b3L;
+			}
+			h = mix(h);
+			int h1 = (int)h;
+			int h2 = (int)(h >>> 32) | 1;
+			probes.incrementAndGet();
+			for (int i=0; i<HASHES; i++)
+			{
+				int b = (h1 + i * h2) & mask;
+				if ((bits[b >>> 6] & (1L << b)) == 0)
+				{
+					rejects.incrementAndGet();
+					return false;
+				}
+			}
+			return true;
+		}
+
+		public String toString()
+		{
+			long p = probes.get();
+			long r = rejects.get();
+			return "filter "+(bits.length*8/1024)+"KB, "+r+" of "+p+" rejected ("+(p > 0 ? r * 100 / p : 0)+"%)";
+		}
+	}
+
+	// ----------------------------------------------------------------------
+	// ---( INNER CLASS ResultCache )---
+	// ----------------------------------------------------------------------
+	/**
+	 * Bounded cache of lookup results for one source, keyed by the
+	 * letters looked up regardless of their order. Empty results are
+	 * kept too so repeated bogus takes are answered here. Entries are
+	 * spread over independently locked LRU stripes by letter histogram.
+	 */
+	private class ResultCache
+	{
+		private final static int STRIPES = 16;
+
+		private LinkedHashMap stripes[];
+		private AtomicLong hits = new AtomicLong();
+		private AtomicLong misses = new AtomicLong();
+		private AtomicLong evictions = new AtomicLong();
+
+		public ResultCache(int size)
+		{
+			final int max = Math.max(1, size / STRIPES);
+			stripes = new LinkedHashMap[size > 0 ? STRIPES : 0];
+			for (int i=0; i<stripes.length; i++)
+			{
+				stripes[i] = new LinkedHashMap(16, 0.75f, true) {
+					protected boolean removeEldestEntry(Map.Entry eldest) {
+						if (size() > max)
+						{
+							evictions.incrementAndGet();
+							return true;
+						}
+						return false;
+					}
+				};
+			}
+		}
+
+		private LinkedHashMap stripe(LetterHistogram letters)
+		{
+			int h = letters.hashCode();
+			return stripes[(h ^ (h >>> 16)) & (STRIPES-1)];
+		}
+
+		/**
+		 * @return the cached word ids for letters or null
+		 */
+		public int[] get(LetterHistogram letters)
+		{
+			if (stripes.length == 0 || letters == null)
+			{
+				return null;
+			}
+			LinkedHashMap stripe = stripe(letters);
+			int ids[];
+			synchronized (stripe)
+			{
+				ids = (int[]) stripe.get(letters);
+			}
+			if (ids == null)
+			{
+				misses.incrementAndGet();
+				return null;
+			}
+			hits.incrementAndGet();
+			return ids;
+		}
+
+		public void put(LetterHistogram letters, int match[], int matchlen)
+		{
+			if (stripes.length == 0 || letters == null)
+			{
+				return;
+			}
+			int ids[] = new int[matchlen];
+			System.arraycopy(match,0,ids,0,matchlen);
+			LinkedHashMap stripe = stripe(letters);
+			synchronized (stripe)
+			{
+				stripe.put(letters, ids);
+			}
+		}
+
+		public String toString()
+		{
+			long h = hits.get();
+			long m = misses.get();
+			return "cache "+h+" hits, "+m+" misses ("+(h+m > 0 ? h * 100 / (h+m) : 0)+"%), "+evictions.get()+" evicted";
+		}
+	}
+
+	// ----------------------------------------------------------------------
+	// ---( INNER CLASS LetterSpace )---
+	// ----------------------------------------------------------------------
+	/**
+	 * For one letter, the ids of the words that use it, split by word
+	 * length and by how many times the letter appears.
+	 */
+	private class LetterSpace
+	{
+		private int letter;
+		private Bitmap words[][];
+		private int count[];
+
+		public LetterSpace(int letter)
+		{
+			this.letter = letter;
+			this.words = new Bitmap[maxword][];
+			this.count = new int[maxword];
+		}
+
+		/**
+		 * Ids must be added in increasing order.
+		 */
+		public void addWord(int len, int index, int repeat)
+		{
+			if (words[len] == null || words[len].length <= repeat)
+			{
+				Bitmap nwords[] = new Bitmap[repeat+1];
+				if (words[len] != null)
+				{
+					System.arraycopy(words[len],0,nwords,0,words[len].length);
+				}
+				words[len] = nwords;
+			}
+			if (words[len][repeat] == null)
+			{
+				words[len][repeat] = new Bitmap();
+			}
+			words[len][repeat].add(index);
+			count[len]++;
+		}
+
+		/**
+		 * @return the words of length wlen using the letter exactly
+		 * repeat times or null if there are none
+		 */
+		public Bitmap getWords(int wlen, int repeat)
+		{
+			Bitmap w[] = words[wlen];
+			return (w != null && repeat < w.length) ? w[repeat] : null;
+		}
+
+		public int getLength(int wlen)
+		{
+			return count[wlen];
+		}
+
+		public void trim()
+		{
+			for (int i=0; i<maxword; i++)
+			{
+				for (int j=0; words[i] != null && j<words[i].length; j++)
+				{
+					if (words[i][j] != null)
+					{
+						words[i][j].trim();
+					}
+				}
+			}
+		}
+
+		public long footprint()
+		{
+			long size = 0;
+			for (int i=0; i<maxword; i++)
+			{
+				for (int j=0; words[i] != null && j<words[i].length; j++)
+				{
+					if (words[i][j] != null)
+					{
+						size += words[i][j].footprint();
+					}
+				}
+			}
+			return size;
+		}
+	}
+
+	// ----------------------------------------------------------------------
+	// ---( INNER CLASS Bitmap )---
+	// ----------------------------------------------------------------------
+	/**
+	 * Compressed set of word ids. Ids are split into chunks of 65536 by
+	 * their high 16 bits. A sparse chunk keeps a sorted array of the low
+	 * bits, a dense one a plain 8KB bitset, so sets AND together chunk by
+	 * chunk without ever expanding to one bit per word.
+	 */
+	private class Bitmap
+	{
+		private final static int DENSE = 4096;
+
+		private char keys[];
+		private Object chunks[];	// char[] sorted low bits or long[1024]
+		private int cards[];
+		private int size;
+
+		public Bitmap()
+		{
+			this(1);
+		}
+
+		private Bitmap(int capacity)
+		{
+			keys = new char[capacity];
+			chunks = new Object[capacity];
+			cards = new int[capacity];
+		}
+
+		/**
+		 * Ids must be added in increasing order.
+		 */
+		public void add(int id)
+		{
+			char key = (char)(id >>> 16);
+			char low = (char)id;
+			if (size == 0 || keys[size-1] != key)
+			{
+				addChunk(key, new char[4], 0);
+			}
+			int c = size-1;
+			if (chunks[c] instanceof char[])
+			{
+				char a[] = (char[]) chunks[c];
+				if (cards[c] == DENSE)
+				{
+					long bits[] = new long[1024];
+					for (int i=0; i<cards[c]; i++)
+					{
+						bits[a[i] >>> 6] |= 1L << a[i];
+					}
+					chunks[c] = bits;
+				}
+				else
+				{
+					if (cards[c] == a.length)
+					{
+						char na[] = new char[Math.min(a.length * 2, DENSE)];
+						System.arraycopy(a,0,na,0,a.length);
+						chunks[c] = a = na;
+					}
+					a[cards[c]++] = low;
+					return;
+				}
+			}
+			long bits[] = (long[]) chunks[c];
+			bits[low >>> 6] |= 1L << low;
+			cards[c]++;
+		}
+
+		private void addChunk(char key, Object chunk, int card)
+		{
+			if (size == keys.length)
+			{
+				char nkeys[] = new char[size * 2];
+				Object nchunks[] = new Object[size * 2];
+				int ncards[] = new int[size * 2];
+				System.arraycopy(keys,0,nkeys,0,size);
+				System.arraycopy(chunks,0,nchunks,0,size);
+				System.arraycopy(cards,0,ncards,0,size);
+				keys = nkeys;
+				chunks = nchunks;
+				cards = ncards;
+			}
+			keys[size] = key;
+			chunks[size] = chunk;
+			cards[size] = card;
+			size++;
+		}
+
+		public int cardinality()
+		{
+			int n = 0;
+			for (int i=0; i<size; i++)
+			{
+				n += cards[i];
+			}
+			return n;
+		}
+
+		/**
+		 * @return a new set of the ids in both this and other
+		 */
+		public Bitmap and(Bitmap other)
+		{
+			Bitmap out = new Bitmap(Math.max(1, Math.min(size, other.size)));
+			for (int i=0, j=0; i<size && j<other.size; )
+			{
+				if (keys[i] < other.keys[j])
+				{
+					i++;
+				}
+				else
+				if (keys[i] > other.keys[j])
+				{
+					j++;
+				}
+				else
+				{
+					and(out, keys[i], chunks[i], cards[i], other.chunks[j], other.cards[j]);
+					i++;
+					j++;
+				}
+			}
+			return out;
+		}
+
+		private void and(Bitmap out, char key, Object a, int acard, Object b, int bcard)
+		{
+			if (a instanceof long[] && b instanceof long[])
+			{
+				long x[] = (long[]) a;
+				long y[] = (long[]) b;
+				long z[] = new long[1024];
+				int card = 0;
+				for (int i=0; i<1024; i++)
+				{
+					z[i] = x[i] & y[i];
+					card += Long.bitCount(z[i]);
+				}
+				if (card > DENSE)
+				{
+					out.addChunk(key, z, card);
+				}
+				else
+				if (card > 0)
+				{
+					char r[] = new char[card];
+					int n = 0;
+					for (int i=0; i<1024; i++)
+					{
+						for (long w = z[i]; w != 0; w &= w - 1)
+						{
+							r[n++] = (char)((i << 6) + Long.numberOfTrailingZeros(w));
+						}
+					}
+					out.addChunk(key, r, card);
+				}
+				return;
+			}
+			if (a instanceof long[])
+			{
+				Object t = a; a = b; b = t;
+				int tc = acard; acard = bcard; bcard = tc;
+			}
+			char x[] = (char[]) a;
+			char r[] = new char[b instanceof long[] ? acard : Math.min(acard, bcard)];
+			int n = 0;
+			if (b instanceof long[])
+			{
+				long y[] = (long[]) b;
+				for (int i=0; i<acard; i++)
+				{
+					if ((y[x[i] >>> 6] & (1L << x[i])) != 0)
+					{
+						r[n++] = x[i];
+					}
+				}
+			}
+			else
+			{
+				char y[] = (char[]) b;
+				for (int i=0, j=0; i<acard && j<bcard; )
+				{
+					if (x[i] < y[j])
+					{
+						i++;
+					}
+					else
+					if (x[i] > y[j])
+					{
+						j++;
+					}
+					else
+					{
+						r[n++] = x[i];
+						i++;
+						j++;
+					}
+				}
+			}
+			if (n > 0)
+			{
+				out.addChunk(key, r, n);
+			}
+		}
+
+		/**
+		 * Adds every id in the set to set.
+		 */
+		public void addTo(SolutionSet set)
+		{
+			for (int c=0; c<size; c++)
+			{
+				int high = keys[c] << 16;
+				if (chunks[c] instanceof char[])
+				{
+					char a[] = (char[]) chunks[c];
+					for (int i=0; i<cards[c]; i++)
+					{
+						set.addWord(high | a[i]);
+					}
+				}
+				else
+				{
+					long bits[] = (long[]) chunks[c];
+					for (int i=0; i<1024; i++)
+					{
+						for (long w = bits[i]; w != 0; w &= w - 1)
+						{
+							set.addWord(high | (i << 6) + Long.numberOfTrailingZeros(w));
+						}
+					}
+				}
+			}
+		}
+
+		/**
+		 * Drops the spare room left by add().
+		 */
+		public void trim()
+		{
+			for (int c=0; c<size; c++)
+			{
+				if (chunks[c] instanceof char[] && ((char[])chunks[c]).length > cards[c])
+				{
+					char a[] = new char[cards[c]];
+					System.arraycopy(chunks[c],0,a,0,cards[c]);
+					chunks[c] = a;
+				}
+			}
+		}
+
+		public long footprint()
+		{
+			long n = keys.length * 10;
+			for (int c=0; c<size; c++)
+			{
+				n += (chunks[c] instanceof char[]) ? ((char[])chunks[c]).length * 2 : 8192;
+			}
+			return n;
+		}
+	}
+
+	// ----------------------------------------------------------------------
+	// ---( INNER CLASS AnagramIndex )---
+	// ----------------------------------------------------------------------
+	/**
+	 * Groups the words of a WordSource into anagram classes keyed by
+	 * their letter count signature. A lookup hashes the letters once and
+	 * lands directly on the class, so finding every permutation of a set
+	 * of letters no longer depends on how common those letters are.
+	 */
+	private class AnagramIndex
+	{
+		private WordStore store;
+		private LongBuffer sigs;
+		private IntBuffer first;
+		private IntBuffer members;
+		private IntBuffer slots;
+		private int mask;
+		private int classes;
+		private boolean building;
+		private SubAnagramTrie trie;
+		private ExtensionGraph graph;
+		private HistogramScan scan;
+
+		public AnagramIndex(WordStore store)
+		{
+			this.store = store;
+			int count = store.numWords();
+			int size = 16;
+			while (size < count * 2)
+			{
+				size <<= 1;
+			}
+			int slot[] = new int[size];
+			long sig[] = new long[count];
+			// until members are laid out, first[c] holds the first word of class c
+			int rep[] = new int[count + 1];
+			slots = IntBuffer.wrap(slot);
+			sigs = LongBuffer.wrap(sig);
+			first = IntBuffer.wrap(rep);
+			mask = size - 1;
+			building = true;
+			int classOf[] = new int[count];
+			int classLen[] = new int[count];
+			int letters[] = new int[26];
+			// signatures are independent, so they are summed in parallel
+			final long wsig[] = new long[count];
+			final WordStore words = store;
+			parallel(count, 8192, new Slice() {
+				void run(int from, int to) {
+					for (int i=from; i<to; i++)
+					{
+						wsig[i] = signature(words, i);
+					}
+				}
+			});
+			for (int i=0; i<count; i++)
+			{
+				long s = wsig[i];
+				if (s == 0)
+				{
+					classOf[i] = -1;
+					continue;
+				}
+				int wlen = store.wordLength(i);
+				for (int j=0; j<wlen; j++)
+				{
+					letters[store.wordByte(i, j) - base]++;
+				}
+				int c = find(s, letters, wlen);
+				if (c < 0)
+				{
+					c = classes++;
+					sig[c] = s;
+					rep[c] = i;
+					insert(s, c);
+				}
+				classOf[i] = c;
+				classLen[c]++;
+				for (int j=0; j<wlen; j++)
+				{
+					letters[store.wordByte(i, j) - base] = 0;
+				}
+			}
+			int start[] = new int[classes + 1];
+			for (int c=0; c<classes; c++)
+			{
+				start[c+1] = start[c] + classLen[c];
+				classLen[c] = start[c];
+			}
+			int member[] = new int[start[classes]];
+			for (int i=0; i<count; i++)
+			{
+				if (classOf[i] >= 0)
+				{
+					member[classLen[classOf[i]]++] = i;
+				}
+			}
+			long nsig[] = new long[classes];
+			System.arraycopy(sig,0,nsig,0,classes);
+			sigs = LongBuffer.wrap(nsig);
+			first = IntBuffer.wrap(start);
+			members = IntBuffer.wrap(member);
+			building = false;
+		}
+
+		/**
+		 * Wraps an index that was written by write() and mapped back in.
+		 */
+		public AnagramIndex(WordStore store, LongBuffer sigs, IntBuffer first, IntBuffer members, IntBuffer slots)
+		{
+			this.store = store;
+			this.sigs = sigs;
+			this.first = first;
+			this.members = members;
+			this.slots = slots;
+			this.mask = slots.limit() - 1;
+			this.classes = sigs.limit();
+		}
+
+		public void write(DataOutputStream out) throws IOException
+		{
+			for (int i=0; i<sigs.limit(); i++)
+			{
+				out.writeLong(sigs.get(i));
+			}
+			for (int i=0; i<first.limit(); i++)
+			{
+				out.writeInt(first.get(i));
+			}
+			for (int i=0; i<members.limit(); i++)
+			{
+				out.writeInt(members.get(i));
+			}
+			for (int i=0; i<slots.limit(); i++)
+			{
+				out.writeInt(slots.get(i));
+			}
+		}
+
+		/**
+		 * Computes the signature of a word and leaves its letter counts
+		 * in <code>letters</code>. Returns 0 if the word contains anything
+		 * other than lower case letters.
+		 */
+		public long signature(byte word[], int letters[])
+		{
+			return signature(word, word.length, letters);
+		}
+
+		/**
+		 * @return the signature of a stored word, 0 if it contains
+		 * anything other than lower case letters
+		 */
+		private long signature(WordStore store, int id)
+		{
+			long sig = 0;
+			int wlen = store.wordLength(id);
+			for (int i=0; i<wlen; i++)
+			{
+				int l = store.wordByte(id, i) - base;
+				if (l < 0 || l >= 26)
+				{
+					return 0;
+				}
+				sig += letterKey[l];
+			}
+			return sig;
+		}
+
+		public long signature(byte word[], int wlen, int letters[])
+		{
+			long sig = 0;
+			for (int i=0; i<wlen; i++)
+			{
+				int l = word[i] - base;
+				if (l < 0 || l >= 26)
+				{
+					clear(word, wlen, letters);
+					return 0;
+				}
+				letters[l]++;
+				sig += letterKey[l];
+			}
+			return sig;
+		}
+
+		private void clear(byte word[], int letters[])
+		{
+			clear(word, word.length, letters);
+		}
+
+		private void clear(byte word[], int wlen, int letters[])
+		{
+			for (int i=0; i<wlen; i++)
+			{
+				int l = word[i] - base;
+				if (l >= 0 && l < 26)
+				{
+					letters[l] = 0;
+				}
+			}
+		}
+
+		private void insert(long sig, int c)
+		{
+			int pos = (int)(sig ^ (sig >>> 32)) & mask;
+			while (slots.get(pos) != 0)
+			{
+				pos = (pos + 1) & mask;
+			}
+			slots.put(pos, c + 1);
+		}
+
+		/**
+		 * @return the class with the given signature and letter counts
+		 * or -1 if there is none
+		 */
+		public int find(long sig, int letters[], int wlen)
+		{
+			int pos = (int)(sig ^ (sig >>> 32)) & mask;
+			int c;
+			while ( (c = slots.get(pos) - 1) >= 0 )
+			{
+				if (sigs.get(c) == sig && sameLetters(building ? first.get(c) : members.get(first.get(c)), letters, wlen))
+				{
+					return c;
+				}
+				pos = (pos + 1) & mask;
+			}
+			return -1;
+		}
+
+		/**
+		 * Checks a word against the letter counts of a query without
+		 * allocating. The counts are restored before returning.
+		 */
+		private boolean sameLetters(int index, int letters[], int wlen)
+		{
+			if (store.wordLength(index) != wlen)
+			{
+				return false;
+			}
+			for (int i=0; i<wlen; i++)
+			{
+				letters[store.wordByte(index, i)-base]--;
+			}
+			boolean same = true;
+			for (int i=0; i<wlen; i++)
+			{
+				if (letters[store.wordByte(index, i)-base] != 0)
+				{
+					same = false;
+					break;
+				}
+			}
+			for (int i=0; i<wlen; i++)
+			{
+				letters[store.wordByte(index, i)-base]++;
+			}
+			return same;
+		}
+
+		public void addMatch(SolutionSet set, byte word[], int letters[])
+		{
+			long sig = signature(word, letters);
+			if (sig == 0)
+			{
+				return;
+			}
+			int c = find(sig, letters, word.length);
+			clear(word, letters);
+			if (c < 0)
+			{
+				return;
+			}
+			for (int i=first.get(c), e=first.get(c+1); i<e; i++)
+			{
+				set.addWord(members.get(i));
+			}
+		}
+
+		/**
+		 * @return the id of a word spelled exactly like word or -1
+		 */
+		public int indexOf(byte word[], int wlen, int letters[])
+		{
+			long sig = signature(word, wlen, letters);
+			if (sig == 0)
+			{
+				return -1;
+			}
+			int c = find(sig, letters, wlen);
+			clear(word, wlen, letters);
+			if (c >= 0)
+			{
+				for (int i=first.get(c), e=first.get(c+1); i<e; i++)
+				{
+					if (store.matches(members.get(i), word, wlen))
+					{
+						return members.get(i);
+					}
+				}
+			}
+			return -1;
+		}
+
+		public int numClasses()
+		{
+			return classes;
+		}
+
+		public int firstMember(int c)
+		{
+			return members.get(first.get(c));
+		}
+
+		/**
+		 * Copies the members of a class that belong to source into out.
+		 *
+		 * @return the new number of ids in out
+		 */
+		public int addMembers(WordSource source, int c, int out[], int found, int limit)
+		{
+			for (int i=first.get(c), e=first.get(c+1); i<e && found<limit; i++)
+			{
+				int id = members.get(i);
+				if (source.isMember(id))
+				{
+					out[found++] = id;
+				}
+			}
+			return found;
+		}
+
+		public int classSize(int c)
+		{
+			return first.get(c+1) - first.get(c);
+		}
+
+		/**
+		 * Finds the classes reachable by adding one letter to word. When
+		 * word is itself a class this is a single graph lookup, otherwise
+		 * each letter is probed in turn.
+		 *
+		 * @param out receives up to 26 (letter &lt;&lt; 24 | class) entries
+		 * @return number of entries
+		 */
+		public int extend(byte word[], int out[])
+		{
+			int letters[] = new int[26];
+			long sig = signature(word, letters);
+			if (sig == 0)
+			{
+				return 0;
+			}
+			int c = find(sig, letters, word.length);
+			if (c >= 0)
+			{
+				return extensions().neighbours(c, out);
+			}
+			int n = 0;
+			for (int l=0; l<26; l++)
+			{
+				letters[l]++;
+				int t = find(sig + letterKey[l], letters, word.length + 1);
+				letters[l]--;
+				if (t >= 0)
+				{
+					out[n++] = (l << 24) | t;
+				}
+			}
+			return n;
+		}
+
+		/**
+		 * The extension graph is only built the first time it is used.
+		 */
+		public synchronized ExtensionGraph extensions()
+		{
+			if (graph == null)
+			{
+				long start = System.currentTimeMillis();
+				graph = new ExtensionGraph(this);
+				debug("built extension graph for "+store+" ("+graph.numEdges()+" edges) in "+(System.currentTimeMillis()-start)+"ms");
+			}
+			return graph;
+		}
+
+		/**
+		 * The sub-anagram trie is only built the first time it is used.
+		 */
+		public synchronized SubAnagramTrie subAnagrams()
+		{
+			if (trie == null)
+			{
+				long start = System.currentTimeMillis();
+				trie = new SubAnagramTrie(this);
+				debug("built sub-anagram trie for "+store+" ("+trie.nodes+" nodes) in "+(System.currentTimeMillis()-start)+"ms");
+			}
+			return trie;
+		}
+
+		/**
+		 * The histogram columns are only built the first time they are used.
+		 */
+		public synchronized HistogramScan histograms()
+		{
+			if (scan == null)
+			{
+				long start = System.currentTimeMillis();
+				scan = new HistogramScan(store);
+				debug("built histogram scan for "+store+" ("+(scan.footprint()/1024)+"KB) in "+(System.currentTimeMillis()-start)+"ms using "+(scanKernel == null ? "byte loops" : scanKernel.toString()));
+			}
+			return scan;
+		}
+
+		public long footprint()
+		{
+			if (sigs.isDirect())
+			{
+				return 0;
+			}
+			return sigs.capacity() * 8L + (first.capacity() + members.capacity() + slots.capacity()) * 4L;
+		}
+	}
+
+	// ----------------------------------------------------------------------
+	// ---( INNER CLASS SubAnagramTrie )---
+	// ----------------------------------------------------------------------
+	/**
+	 * A trie over the sorted letters of every anagram class in an index.
+	 * Walking it while spending letters from a bag visits exactly the
+	 * classes that can be built from the bag, so one pass over the pool
+	 * finds every word it holds.
+	 */
+	private class SubAnagramTrie
+	{
+		private AnagramIndex index;
+		private int child[];
+		private int sibling[];
+		private int cls[];
+		private byte letter[];
+		private int nodes;
+
+		public SubAnagramTrie(AnagramIndex index)
+		{
+			this.index = index;
+			int size = 1024;
+			child = new int[size];
+			sibling = new int[size];
+			cls = new int[size];
+			letter = new byte[size];
+			nodes = 1;
+			child[0] = -1;
+			sibling[0] = -1;
+			cls[0] = -1;
+			int counts[] = new int[26];
+			for (int c=0; c<index.numClasses(); c++)
+			{
+				int word = index.firstMember(c);
+				int wlen = index.store.wordLength(word);
+				for (int i=0; i<wlen; i++)
+				{
+					counts[index.store.wordByte(word, i) - base]++;
+				}
+				int node = 0;
+				for (int l=0; l<26; l++)
+				{
+					for ( ; counts[l] > 0; counts[l]--)
+					{
+						node = childOf(node, l);
+					}
+				}
+				cls[node] = c;
+			}
+		}
+
+		private int childOf(int node, int l)
+		{
+			int prev = -1;
+			int next = child[node];
+			while (next >= 0 && letter[next] < l)
+			{
+				prev = next;
+				next = sibling[next];
+			}
+			if (next >= 0 && letter[next] == l)
+			{
+				return next;
+			}
+			if (nodes == child.length)
+			{
+				child = grow(child);
+				sibling = grow(sibling);
+				cls = grow(cls);
+				byte nletter[] = new byte[nodes * 2];
+				System.arraycopy(letter,0,nletter,0,nodes);
+				letter = nletter;
+			}
+			int n = nodes++;
+			letter[n] = (byte)l;
+			child[n] = -1;
+			cls[n] = -1;
+			sibling[n] = next;
+			if (prev < 0)
+			{
+				child[node] = n;
+			}
+			else
+			{
+				sibling[prev] = n;
+			}
+			return n;
+		}
+
+		private int[] grow(int a[])
+		{
+			int n[] = new int[a.length * 2];
+			System.arraycopy(a,0,n,0,a.length);
+			return n;
+		}
+
+		/**
+		 * Finds the words of a source that can be spelled from a bag of
+		 * letters. The counts in bag are used up during the walk and are
+		 * restored before returning.
+		 *
+		 * @param bag letter counts, a..z
+		 * @param min shortest word to report
+		 * @param max longest word to report
+		 * @param out receives word ids
+		 * @param limit stop after this many words
+		 * @return number of ids written to out
+		 */
+		public int find(WordSource source, int bag[], int min, int max, int out[], int limit)
+		{
+			return walk(source, 0, 0, bag, min, max, out, 0, Math.min(limit, out.length));
+		}
+
+		private int walk(WordSource source, int node, int depth, int bag[], int min, int max, int out[], int found, int limit)
+		{
+			for (int n = child[node]; n >= 0 && found < limit; n = sibling[n])
+			{
+				int l = letter[n];
+				if (bag[l] == 0)
+				{
+					continue;
+				}
+				bag[l]--;
+				if (cls[n] >= 0 && depth + 1 >= min)
+				{
+					found = index.addMembers(source, cls[n], out, found, limit);
+				}
+				if (depth + 1 < max)
+				{
+					found = walk(source, n, depth + 1, bag, min, max, out, found, limit);
+				}
+				bag[l]++;
+			}
+			return found;
+		}
+	}
+
+	// ----------------------------------------------------------------------
+	// ---( INNER CLASS ExtensionGraph )---
+	// ----------------------------------------------------------------------
+	/**
+	 * Links each anagram class to the classes that have exactly one more
+	 * letter. Edges are packed as (letter &lt;&lt; 24 | class) and are
+	 * ordered by letter.
+	 */
+	private class ExtensionGraph
+	{
+		private int start[];
+		private int edges[];
+
+		public ExtensionGraph(AnagramIndex index)
+		{
+			int classes = index.numClasses();
+			int letters[] = new int[26];
+			start = new int[classes + 1];
+			edges = new int[classes];
+			int n = 0;
+			for (int c=0; c<classes; c++)
+			{
+				start[c] = n;
+				int word = index.firstMember(c);
+				int wlen = index.store.wordLength(word);
+				for (int i=0; i<wlen; i++)
+				{
+					letters[index.store.wordByte(word, i) - base]++;
+				}
+				long sig = index.sigs.get(c);
+				for (int l=0; l<26; l++)
+				{
+					letters[l]++;
+					int t = index.find(sig + letterKey[l], letters, wlen + 1);
+					letters[l]--;
+					if (t >= 0)
+					{
+						if (n == edges.length)
+						{
+							int nedges[] = new int[edges.length * 2];
+							System.arraycopy(edges,0,nedges,0,n);
+							edges = nedges;
+						}
+						edges[n++] = (l << 24) | t;
+					}
+				}
+				for (int i=0; i<wlen; i++)
+				{
+					letters[index.store.wordByte(word, i) - base] = 0;
+				}
+			}
+			start[classes] = n;
+		}
+
+		public int numEdges()
+		{
+			return start[start.length - 1];
+		}
+
+		/**
+		 * Copies the edges of class c into out.
+		 *
+		 * @return number of edges copied
+		 */
+		public int neighbours(int c, int out[])
+		{
+			int n = start[c+1] - start[c];
+			System.arraycopy(edges,start[c],out,0,n);
+			return n;
+		}
+	}
+
+	// ----------------------------------------------------------------------
+	// ---( INNER CLASS HistogramScan )---
+	// ----------------------------------------------------------------------
+	/**
+	 * Letter counts of every word in the store kept column by column, one
+	 * byte array per letter. Asking which words fit in a bag of letters
+	 * is then a straight pass down each column over a block of words with
+	 * no branches, a loop shape the JIT turns into SIMD compares.
+	 * <p>
+	 * When VectorScanKernel was built and the VM runs with the
+	 * jdk.incubator.vector module, the block is checked by that kernel
+	 * instead. -Dvector=0 keeps the byte loops.
+	 */
+	private class HistogramScan
+	{
+		private final static int BLOCK = 4096;
+
+		private byte counts[][] = new byte[26][];
+		private byte lengths[];
+		private int words;
+
+		public HistogramScan(WordStore store)
 		{
-			for (int i=0; i<ptr[wlen]; i++)
+			words = store.numWords();
+			lengths = new byte[words];
+			for (int l=0; l<26; l++)
 			{
-				if ( (words[wlen][i] >> 24) == repeat )
+				counts[l] = new byte[words];
+			}
+			for (int id=0; id<words; id++)
+			{
+				int wlen = store.wordLength(id);
+				boolean valid = wlen < 128;
+				for (int i=0; valid && i<wlen; i++)
 				{
-					set.addWord(words[wlen][i] & 0xffffff);
+					int l = store.wordByte(id, i) - base;
+					if (l < 0 || l > 25)
+					{
+						valid = false;
+						break;
+					}
+					counts[l][id]++;
 				}
+				// a zero length never falls in the asked for range
+				lengths[id] = (byte)(valid ? wlen : 0);
 			}
 		}
 
-		public boolean contains(int wlen, int index, int repeat)
+		/**
+		 * Finds words of length min..max that use each letter at most
+		 * as often as bag holds it.
+		 *
+		 * @return the number of word ids written to out
+		 */
+		public int find(WordSource source, int bag[], int min, int max, int out[], int limit)
+		{
+			return find(source, bag, min, max, out, limit, scanKernel);
+		}
+
+		/**
+		 * @param kernel checks each block, or null for the byte loops
+		 */
+		public int find(WordSource source, int bag[], int min, int max, int out[], int limit, ScanKernel kernel)
 		{
-			for (int i=0; i<ptr[wlen]; i++)
+			// a word fails as soon as any of its subtractions goes negative
+			byte bad[] = new byte[BLOCK];
+			byte have[] = new byte[26];
+			int found = 0;
+			byte lo = (byte) Math.max(min, 1);
+			byte hi = (byte) Math.min(max, 127);
+			for (int l=0; l<26; l++)
+			{
+				have[l] = (byte) Math.min(bag[l], 127);
+			}
+			for (int start=0; start<words && found<limit; start+=BLOCK)
 			{
-				if ( (words[wlen][i] >> 24) == repeat &&
-					(words[wlen][i] & 0xffffff) == index )
+				int len = Math.min(BLOCK, words-start);
+				if (kernel != null)
 				{
-					return true;
+					kernel.scan(counts, lengths, start, len, have, lo, hi, bad);
+				}
+				else
+				{
+					for (int j=0; j<len; j++)
+					{
+						bad[j] = (byte)((lengths[start+j] - lo) | (hi - lengths[start+j]));
+					}
+					for (int l=0; l<26; l++)
+					{
+						byte col[] = counts[l];
+						byte h = have[l];
+						for (int j=0; j<len; j++)
+						{
+							bad[j] |= (byte)(h - col[start+j]);
+						}
+					}
+				}
+				for (int j=0; j<len && found<limit; j++)
+				{
+					if (bad[j] >= 0 && source.isMember(start+j))
+					{
+						out[found++] = start+j;
+					}
 				}
 			}
-			return false;
+			return found;
 		}
 
-		public int getLength(int wlen)
+		public long footprint()
 		{
-			return ptr[wlen];
+			return 27L * words;
 		}
 	}
 
@@ -359,7 +2947,12 @@ public class Scramble
 		private int letters[] = new int[26];
 		private int match[] = new int[1000];
 		private int matchlen;
-		private int found;
+
+		public SolutionSet(WordSource source)
+		{
+			this.source = source;
+			this.word = new byte[0];
+		}
 
 		public SolutionSet(WordSource source, byte word[])
 		{
@@ -372,48 +2965,68 @@ public class Scramble
 			this(source, word.getBytes());
 		}
 
+		/**
+		 * Points a reused set at the source its next setWord() searches.
+		 */
+		public void setSource(WordSource source)
+		{
+			this.source = source;
+		}
+
 		public void setWord(byte word[])
 		{
 			try {
 				
-			this.found = 0;
+			this.matchlen = 0;
 			this.word = word;
-			startTimer();
+			long start = System.currentTimeMillis();
 			int wlen = word.length;
-			for (int i=0; i<26; i++)
+			LetterHistogram key = LetterHistogram.of(word);
+			int cached[] = source.cache.get(key);
+			if (cached != null)
 			{
-				letters[i] = 0;
+				if (cached.length > match.length)
+				{
+					match = new int[cached.length+1000];
+				}
+				System.arraycopy(cached,0,match,0,cached.length);
+				matchlen = cached.length;
+				return;
 			}
-			for (int i=0; i<wlen; i++)
+			if (!letterIndex)
 			{
-				letters[word[i]-base]++;
+				source.store.anagrams.addMatch(this, word, letters);
+				source.cache.put(key, match, matchlen);
+				return;
 			}
-			int done = 0;
-			int order[] = new int[26];
-			for (int i=0; i<26; i++)
+			if (wlen == 0 || wlen >= maxword || key == null)
 			{
-				order[i] = (source.lists[i].getLength(wlen) << 8) | i;
+				return;
 			}
-			Arrays.sort(order);
+			int order[] = source.store.order[wlen];
+			LetterSpace lists[] = source.store.lists;
+			// AND the posting sets, rarest letter first
+			Bitmap hits = null;
 			for (int x=0; x<26; x++)
 			{
-				int i = order[x] & 0xff;
-				if (letters[i] > 0)
+				int i = order[x];
+				int n = key.count(i);
+				if (n > 0)
 				{
-					if (done++ == 0)
-					{
-						source.lists[i].addMatch(this, wlen, letters[i]);
-					}
-					else
+					Bitmap b = lists[i].getWords(wlen, n);
+					hits = (b == null) ? new Bitmap() : (hits == null) ? b : hits.and(b);
+					if (hits.size == 0)
 					{
-						delWords(wlen, i, letters[i]);
+						break;
 					}
 				}
 			}
-			long tm = checkTimer();
+			hits.addTo(this);
+			source.cache.put(key, match, matchlen);
+			long tm = System.currentTimeMillis() - start;
 			if (tm > 100)
 			{
-				debug("search("+new String(word)+") in "+tm+"ms = "+found);
+				debug("search("+new String(word)+") in "+tm+"ms = "+matchlen);
 			}
 			
 			} catch (Exception ex) {
@@ -422,21 +3035,12 @@ public class Scramble
 			}
 		}
 
-		public void delWords(int wlen, int list, int repeat)
+		public void addWord(int index)
 		{
-			for (int i=0; i<matchlen; i++)
+			if (!source.isMember(index))
 			{
-				if (match[i] >= 0 && !source.lists[list].contains(wlen, match[i], repeat))
-				{
-					found--;
-					match[i] = -1;
-				}
+				return;
 			}
-		}
-
-		public void addWord(int index)
-		{
-			found++;
 			match[matchlen++] = index;
 			if (matchlen >= match.length)
 			{
@@ -448,23 +3052,14 @@ public class Scramble
 
 		public boolean contains(byte cword[])
 		{
-			if (cword.length != word.length || found == 0)
+			if (cword.length != word.length)
 			{
 				return false;
 			}
-			letter:
 			for (int i=0; i<matchlen; i++)
 			{
-				if (match[i] >= 0)
+				if (source.matches(match[i], cword))
 				{
-					byte test[] = source.getWord(match[i]);
-					for (int j=0; j<test.length; j++)
-					{
-						if (test[j] != cword[j])
-						{
-							continue letter;
-						}
-					}
 					return true;
 				}
 			}
@@ -473,21 +3068,41 @@ public class Scramble
 
 		public int size()
 		{
-			return found;
+			return matchlen;
+		}
+
+		/**
+		 * @return the id of the i'th match, 0 &lt;= i &lt; size()
+		 */
+		public int getWordId(int i)
+		{
+			return match[i];
+		}
+
+		/**
+		 * Copies match ids into out.
+		 *
+		 * @return the number of ids copied
+		 */
+		public int getWordIds(int out[])
+		{
+			int n = Math.min(matchlen, out.length);
+			System.arraycopy(match,0,out,0,n);
+			return n;
+		}
+
+		public String getWordString(int i)
+		{
+			return source.getWordString(match[i]);
 		}
 
 		public String[] getWords()
 		{
-			ArrayList w = new ArrayList();
+			String wz[] = new String[matchlen];
 			for (int i=0; i<matchlen; i++)
 			{
-				if (match[i] >= 0)
-				{
-					w.add(source.getWordString(match[i]));
-				}
+				wz[i] = source.getWordString(match[i]);
 			}
-			String wz[] = new String[w.size()];
-			w.toArray(wz);
 			return wz;
 		}
 
@@ -495,10 +3110,7 @@ public class Scramble
 		{
 			for (int i=0; i<matchlen; i++)
 			{
-				if (match[i] >= 0)
-				{
-					debug(source.getWordString(match[i]));
-				}
+				debug(source.getWordString(match[i]));
 			}
 		}
 	}
@@ -903,18 +3515,26 @@ public class Scramble
 	private class Game
 	{
 		private MetaServer server;
-		private WordSource source;
+		private volatile WordSource source;
 		private Player creator;
 		private String guid;
 		private String dictName;
 		private String gameName;
 		private int gameSpeed;
 		private int gameLevel;
-		private ArrayList words;
-		private ArrayList players;
+		private StealIndex words;
+		private Lineage history;
+		private List players;
 		private Pool pool;
-		private Thread dealer;
-		private int state;
+		private int poolSeq;
+		private ScheduledThreadPoolExecutor loop;
+		private ConcurrentLinkedQueue inbox = new ConcurrentLinkedQueue();
+		private AtomicInteger wip = new AtomicInteger();
+		private int round;
+		private ArrayList batch = new ArrayList();
+		private boolean batching;
+		private boolean tilesDirty;
+		private volatile int state;
 		private long dealInterval;
 		private long graceInterval;
 		private long endGameInterval;
@@ -924,31 +3544,112 @@ public class Scramble
 		private long startTime;
 		private boolean endgame;
 		private boolean onTheClock;
-		private boolean timeout;
+		private volatile boolean timeout;
 		private int spectators;
 
+		/**
+		 * Runs what was posted to the inbox, one command at a time. wip
+		 * counts posts not yet drained, so only the post that raises it
+		 * from zero schedules a drain on the game's loop.
+		 */
+		private Runnable drain = new Runnable() {
+			public void run()
+			{
+				int missed = 1;
+				do
+				{
+					Runnable cmd;
+					while ((cmd = (Runnable)inbox.poll()) != null)
+					{
+						try
+						{
+							cmd.run();
+						}
+						catch (Throwable ex)
+						{
+							// an Error must not leave wip raised or the
+							// game would never drain again
+							ex.printStackTrace();
+						}
+					}
+					missed = wip.addAndGet(-missed);
+				}
+				while (missed != 0);
+			}
+		};
+
 		public Game(MetaServer server, Player creator, String name, int speed, int level, String dictName) throws Exception
 		{
-			this.source = (WordSource) dict.get(dictName.toLowerCase());
+			this.source = dict.get(dictName);
 			this.server = server;
 			this.dictName = dictName;
 			this.creator = creator;
 			gameName = name;
 			gameSpeed = speed;
 			gameLevel = level;
-			players = new ArrayList();
+			loop = loopFor(name);
+			players = new CopyOnWriteArrayList();
 			timeout = true;
 			setup();
 		}
 
+		/**
+		 * Queues a change to the game. Every change to a game's state is
+		 * a command run on the game's event loop, in the order posted, so
+		 * socket reader threads never wait on the game and the loop needs
+		 * no locks. The public methods below only post.
+		 */
+		public void post(Runnable cmd)
+		{
+			inbox.offer(cmd);
+			if (wip.getAndIncrement() == 0)
+			{
+				loop.execute(drain);
+			}
+		}
+
+		/**
+		 * Posts cmd once delay ms have passed.
+		 */
+		private void later(long delay, final Runnable cmd)
+		{
+			loop.schedule(new Runnable() {
+				public void run()
+				{
+					post(cmd);
+				}
+			}, delay, TimeUnit.MILLISECONDS);
+		}
+
 		public ArrayList players() {
 			return new ArrayList(players);
 		}
 		
 		private void setup()
 		{
-			words = new ArrayList();
+			// pick up a reloaded dictionary between games
+			try
+			{
+				source = dict.get(dictName);
+			}
+			catch (IOException ex)
+			{
+				debug("keeping the current dictionary : "+ex);
+			}
+			words = new StealIndex();
+			history = new Lineage();
 			pool = new Pool();
+			// delta players start the new game from an empty pool
+			String snap[] = new String[] { Integer.toString(++poolSeq), "snap", "" };
+			for (Iterator i = players().iterator(); i.hasNext(); ) {
+				Player p = (Player)i.next();
+				// words from the last round belong to the old pool and index
+				p.reset();
+				if (p.wantsPoolDeltas())
+				{
+					p.sendCommand(Player.POOLDELTA, snap);
+				}
+			}
 			state = WAITING;
 			endGameInterval = endGamePeriod[gameSpeed];
 			graceInterval = gracePeriod[gameSpeed];
@@ -1000,6 +3701,16 @@ public class Scramble
 		}
 
 		public void kickIdle()
+		{
+			post(new Runnable() {
+				public void run()
+				{
+					idle();
+				}
+			});
+		}
+
+		private void idle()
 		{
 			if (state == WAITING)
 			{
@@ -1021,7 +3732,25 @@ public class Scramble
 			}
 		}
 
-		public void checkReady(Player player)
+		/**
+		 * Posts a player's change of mind about playing.
+		 */
+		public void setReady(final Player player, final boolean ready)
+		{
+			post(new Runnable() {
+				public void run()
+				{
+					if (ready != player.ready)
+					{
+						player.setReady(ready);
+						sendAll(Player.READY, new String[] { player.getName(), Boolean.toString(ready) });
+						checkReady(player);
+					}
+				}
+			});
+		}
+
+		private void checkReady(Player player)
 		{
 			List plist = players();
 			if (state != INPLAY) 
@@ -1069,14 +3798,67 @@ public class Scramble
 			}
 		}
 
-		public void sendTiles()
+		/**
+		 * Sends the pool to players with the classic POOL message and the
+		 * changes since the last send to players that asked for deltas.
+		 * Every change takes the next number in the game's sequence.
+		 */
+		private void sendTiles()
+		{
+			String changes[][] = pool.takeChanges();
+			String deltas[][] = new String[changes.length][];
+			for (int i=0; i<changes.length; i++)
+			{
+				deltas[i] = new String[changes[i].length+1];
+				deltas[i][0] = Integer.toString(++poolSeq);
+				System.arraycopy(changes[i],0,deltas[i],1,changes[i].length);
+			}
+			String tiles = pool.getTilesString();
+			lastSend = time();
+			for (Iterator i = players().iterator(); i.hasNext(); ) {
+				Player p = (Player)i.next();
+				if (!p.wantsPoolDeltas())
+				{
+					p.sendCommand(Player.POOL, tiles);
+					continue;
+				}
+				for (int j=0; j<deltas.length; j++)
+				{
+					p.sendCommand(Player.POOLDELTA, deltas[j]);
+				}
+			}
+		}
+
+		private void sendTiles(Player pl)
+		{
+			if (pl.wantsPoolDeltas())
+			{
+				snapshot(pl);
+			}
+			else
+			{
+				pl.sendCommand(Player.POOL, pool.getTilesString());
+			}
+		}
+
+		/**
+		 * Sends the whole pool to a delta player, after first sending out
+		 * any changes the snapshot already contains.
+		 */
+		public void sendSnapshot(final Player pl)
 		{
-			sendAll(Player.POOL, pool.getTilesString());
+			post(new Runnable() {
+				public void run()
+				{
+					snapshot(pl);
+				}
+			});
 		}
 
-		public void sendTiles(Player pl)
+		private void snapshot(Player pl)
 		{
-			pl.sendCommand(Player.POOL, pool.getTilesString());
+			sendTiles();
+			pl.sendCommand(Player.POOLDELTA, new String[] { Integer.toString(poolSeq), "snap", pool.getTilesString() });
 		}
 
 		public long time()
@@ -1159,68 +3941,82 @@ public class Scramble
 				return;
 			}
 			state = INPLAY;
-			dealer = new Thread("Dealer") {
+			final int r = ++round;
+			sendAll(Player.NEWGAME, gameName);
+			broadcast("The game will start in 3 seconds");
+			sendAll(Player.TIMER, "3");
+			later(3000, new Runnable() {
 				public void run()
 				{
-					try
-					{
-					
-					sendAll(Player.NEWGAME, gameName);
-					broadcast("The game will start in 3 seconds");
-					sendAll(Player.TIMER, "3");
-					sleep(3000);
-					if (state == INPLAY)
-					{
-						startTime = time();
-						broadcast("The game is now in play");
-						onTheClock = false;
-						pool.deal();
-						pool.deal();
-					}
-					while (state == INPLAY)
+					if (state != INPLAY || round != r)
 					{
-						if (pool.deal())
-						{
-							sendTiles();
-							updateAction();
-							sleep(getDealSleep());
-						}
-						else
-						{
-							if (!endgame && !pool.hasMoreTiles())
-							{
-								broadcast("No more tiles. Endgame begins now.");
-								endgame = true;
-							}
-							if (sinceLastAction() > endGameInterval)
-							{
-								gameOver();
-								return;
-							}
-							if (!onTheClock)
-							{
-								updateAction();
-								onTheClock = true;
-								String i = Long.toString(endGameInterval/1000);
-								broadcast("Game over in "+i+" seconds");
-								sendAll(Player.TIMER, i);
-							}
-							waitForTake();
-						}
-						while (sinceLastTake() < graceInterval)
-						{
-							sleep(graceInterval - sinceLastTake());
-						}
+						return;
 					}
+					startTime = time();
+					broadcast("The game is now in play");
+					onTheClock = false;
+					pool.deal();
+					pool.deal();
+					deal(r);
+				}
+			});
+		}
 
-					}
-					catch (Exception ex)
-					{
-						ex.printStackTrace();
-					}
+		/**
+		 * One turn of the dealer. Shows the next tile or, once none can be
+		 * shown, runs the endgame clock, then schedules the next turn. No
+		 * turn starts within the grace period after a take. Turns left
+		 * over from an earlier round are ignored.
+		 */
+		private void deal(final int r)
+		{
+			if (state != INPLAY || round != r)
+			{
+				return;
+			}
+			long grace = graceInterval - sinceLastTake();
+			if (grace > 0)
+			{
+				nextDeal(r, grace);
+				return;
+			}
+			if (pool.deal())
+			{
+				sendTiles();
+				updateAction();
+			}
+			else
+			{
+				if (!endgame && !pool.hasMoreTiles())
+				{
+					broadcast("No more tiles. Endgame begins now.");
+					endgame = true;
+				}
+				if (sinceLastAction() > endGameInterval)
+				{
+					gameOver();
+					return;
+				}
+				if (!onTheClock)
+				{
+					updateAction();
+					onTheClock = true;
+					String i = Long.toString(endGameInterval/1000);
+					broadcast("Game over in "+i+" seconds");
+					sendAll(Player.TIMER, i);
+				}
+			}
+			nextDeal(r, getDealSleep());
+		}
+
+		private void nextDeal(final int r, long delay)
+		{
+			later(delay, new Runnable() {
+				public void run()
+				{
+					deal(r);
 				}
-			};
-			dealer.start();
+			});
 		}
 
 		public int getState()
@@ -1228,7 +4024,19 @@ public class Scramble
 			return state;
 		}
 
-		public void addPlayer(Player player)
+		public void addPlayer(final Player player)
+		{
+			// commands the player sends from now on go to this game
+			player.game = this;
+			post(new Runnable() {
+				public void run()
+				{
+					join(player);
+				}
+			});
+		}
+
+		private void join(Player player)
 		{
 			boolean spec = (players.size() - spectators) >= 4;
 			if (spec)
@@ -1264,17 +4072,38 @@ public class Scramble
 
 		public void cancelGame()
 		{
-			for (Iterator i = new LinkedList(players).iterator(); i.hasNext(); ) {
-				Player p = (Player)i.next();
-				p.sendCommand(Player.LEAVE, p.getName());
-				p.CMD_leave(null);
-			}
-			server.removeGame(this);
-			gameOver();
-			server.sendGames();
+			post(new Runnable() {
+				public void run()
+				{
+					for (Iterator i = new LinkedList(players).iterator(); i.hasNext(); ) {
+						Player p = (Player)i.next();
+						p.sendCommand(Player.LEAVE, p.getName());
+						p.CMD_leave(null);
+					}
+					// after the leaves just posted
+					post(new Runnable() {
+						public void run()
+						{
+							server.removeGame(Game.this);
+							gameOver();
+							server.sendGames();
+						}
+					});
+				}
+			});
+		}
+
+		public void removePlayer(final Player player)
+		{
+			post(new Runnable() {
+				public void run()
+				{
+					leave(player);
+				}
+			});
 		}
 
-		public void removePlayer(Player player)
+		private void leave(Player player)
 		{
 			try {
 debug(this+" removePlayer "+player+" spectator("+player.isSpectator()+") from "+players);
@@ -1321,7 +4150,17 @@ debug(this+" removePlayer "+player+" spectator("+player.isSpectator()+") from "+
 			}
 		}
 
-		public void warning(String msg)
+		public void warning(final String msg)
+		{
+			post(new Runnable() {
+				public void run()
+				{
+					warn(msg);
+				}
+			});
+		}
+
+		private void warn(String msg)
 		{
 			long last = lastSend;
 			sendAll(Player.CHAT, msg);
@@ -1333,7 +4172,17 @@ debug(this+" removePlayer "+player+" spectator("+player.isSpectator()+") from "+
 			sendAll(Player.MESSAGE, msg);
 		}
 
-		public void sendChat(String user, String msg)
+		public void sendChat(final String user, final String msg)
+		{
+			post(new Runnable() {
+				public void run()
+				{
+					chat(user, msg);
+				}
+			});
+		}
+
+		private void chat(String user, String msg)
 		{
 			String lower = msg.toLowerCase();
 			if (lower.startsWith("kick ") && msg.length() > 5)
@@ -1361,7 +4210,7 @@ debug(this+" removePlayer "+player+" spectator("+player.isSpectator()+") from "+
 			sendAll(cmd, "");
 		}
 
-		public synchronized void sendAll(String cmd, String args[])
+		public void sendAll(String cmd, String args[])
 		{
 			lastSend = time();
 			if (cmd != Player.POOL && cmd != Player.TIMER)
@@ -1374,18 +4223,6 @@ debug(this+" removePlayer "+player+" spectator("+player.isSpectator()+") from "+
 			}
 		}
 
-		public void waitForTake()
-		{
-			synchronized (pool)
-			{
-				if (sinceLastTake() < graceInterval)
-				{
-					return;
-				}
-				try { pool.wait(getDealSleep()); } catch (Exception ex) { }
-			}
-		}
-
 		public void updateAction()
 		{
 			lastAction = time();
@@ -1398,11 +4235,7 @@ debug(this+" removePlayer "+player+" spectator("+player.isSpectator()+") from "+
 
 		public void updateTake()
 		{
-			synchronized (pool)
-			{
-				lastTake = time();
-				pool.notify();
-			}
+			lastTake = time();
 			updateAction();
 		}
 
@@ -1411,6 +4244,7 @@ debug(this+" removePlayer "+player+" spectator("+player.isSpectator()+") from "+
 			updateTake();
 			player.addWord(word);
 			words.add(word);
+			word.setLineage(history.open());
 			word.setPlayer(player);
 			sendAll(Player.TAKE, new String[] { player.getName(), word.toString() });
 		}
@@ -1430,11 +4264,47 @@ debug(this+" removePlayer "+player+" spectator("+player.isSpectator()+") from "+
 				debug(oldword+" has no owner!");
 			}
 			player.addWord(oldword);
+			words.remove(oldword);
+			history.add(oldword.getLineage(), oldword.getId());
 			oldword.update(newword);
+			words.add(oldword);
 			sendAll(Player.TAKE,
 				new String[] { player.getName(), oldword.toString() });
 		}
 
+		/**
+		 * Replaces several table words with one spelled from all of them.
+		 * The first part becomes the new word and keeps the history of
+		 * every part.
+		 */
+		private void merge(Player player, ArrayList parts, Word newword)
+		{
+			updateTake();
+			Word base = (Word)parts.get(0);
+			for (int i=0; i<parts.size(); i++)
+			{
+				Word part = (Word)parts.get(i);
+				Player owner = part.getPlayer();
+				debug("'"+player+"' merges '"+part+"' from '"+owner+"' into '"+newword+"'");
+				if (owner != null)
+				{
+					sendAll(Player.LOSE, new String[] {owner.getName(), part.toString(), player.getName()});
+					owner.delWord(part);
+				}
+				words.remove(part);
+				history.add(base.getLineage(), part.getId());
+				if (part != base)
+				{
+					history.merge(base.getLineage(), part.getLineage());
+				}
+			}
+			base.update(newword);
+			player.addWord(base);
+			words.add(base);
+			sendAll(Player.TAKE,
+				new String[] { player.getName(), base.toString() });
+		}
+
 //		private void clearWordMarks(Vector v)
 //		{
 //			for (Enumeration e = v.elements(); e.hasMoreElements(); )
@@ -1472,20 +4342,186 @@ debug(this+" removePlayer "+player+" spectator("+player.isSpectator()+") from "+
 			}
 		}
 
-		public synchronized boolean takeWord(Player player, byte word[])
+		/**
+		 * Posts a player's attempt to take word. The dictionary work does
+		 * not depend on the game, so it is done first on the caller's
+		 * thread against the current source. The loop only has to redo it
+		 * if a new game has picked up a reloaded dictionary meanwhile.
+		 *
+		 * @param arrived System.nanoTime() when the take was read
+		 */
+		public void requestTake(Player player, byte word[], long arrived)
+		{
+			WordSource checked = source;
+			post(new Take(player, word, checked, prepareTake(checked, word), arrived));
+		}
+
+		/**
+		 * With a take window, holds a take until the window that opened
+		 * with the first take of a burst closes.
+		 */
+		private void arbitrate(Take take)
+		{
+			if (batch.size() == 0)
+			{
+				later(takeWindow, new Runnable() {
+					public void run()
+					{
+						resolveTakes();
+					}
+				});
+			}
+			batch.add(take);
+		}
+
+		/**
+		 * Applies the takes of one window in the order they were read off
+		 * their sockets, then sends the pool once. A take that lost its
+		 * letters to an earlier one in the batch falls inside that take's
+		 * grace period and costs its player nothing.
+		 */
+		private void resolveTakes()
+		{
+			Take takes[] = new Take[batch.size()];
+			batch.toArray(takes);
+			batch.clear();
+			Arrays.sort(takes, new Comparator() {
+				public int compare(Object o1, Object o2)
+				{
+					return Long.compare(((Take)o1).arrived, ((Take)o2).arrived);
+				}
+			});
+			if (takes.length > 1)
+			{
+				debug("resolving "+takes.length+" takes together");
+			}
+			batching = true;
+			try
+			{
+				for (int i=0; i<takes.length; i++)
+				{
+					takes[i].apply();
+				}
+			}
+			finally
+			{
+				batching = false;
+			}
+			if (tilesDirty)
+			{
+				tilesDirty = false;
+				sendTiles();
+			}
+		}
+
+		/**
+		 * Sends the pool after a take, or once at the end of a batch.
+		 */
+		private void tilesTaken()
+		{
+			if (batching)
+			{
+				tilesDirty = true;
+			}
+			else
+			{
+				sendTiles();
+			}
+		}
+
+		/**
+		 * A take posted to the loop with the dictionary work already done.
+		 */
+		private class Take implements Runnable
+		{
+			private Player player;
+			private byte word[];
+			private WordSource checked;
+			private Word prepared;
+			private long arrived;
+
+			Take(Player player, byte word[], WordSource checked, Word prepared, long arrived)
+			{
+				this.player = player;
+				this.word = word;
+				this.checked = checked;
+				this.prepared = prepared;
+				this.arrived = arrived;
+			}
+
+			public void run()
+			{
+				if (takeWindow > 0)
+				{
+					arbitrate(this);
+				}
+				else
+				{
+					apply();
+				}
+			}
+
+			void apply()
+			{
+				if (state != INPLAY)
+				{
+					player.sendMessage("whoa there, speedy! the game is not yet in play.");
+					return;
+				}
+				// a take held by the window may outlive its player's seat
+				if (player.getGame() != Game.this || !players.contains(player))
+				{
+					debug("dropping '"+new String(word)+"' from '"+player+"' who left the game");
+					return;
+				}
+				try
+				{
+					Word find = prepared;
+					if (checked != source)
+					{
+						debug("dictionary changed, checking '"+find+"' again");
+						find = prepareTake(source, word);
+					}
+					takeWord(player, find);
+				}
+				catch (Exception ex)
+				{
+					ex.printStackTrace();
+					player.sendMessage("'"+new String(word)+"' is an illegal word");
+				}
+			}
+		}
+
+		/**
+		 * Looks word up in source, and its plural stem if the source
+		 * has plural rules. Safe on any thread.
+		 */
+		private Word prepareTake(WordSource source, byte word[])
+		{
+			Word find = new Word(word);
+			if (word.length >= 3 && find.letters() != null)
+			{
+				find.setId(source.idOf(word));
+				if (find.getId() >= 0 && source.noPlurals())
+				{
+					find.setStem(source.stemOf(find.getId()));
+				}
+			}
+			return find;
+		}
+
+		private boolean takeWord(Player player, Word find)
 		{
 			boolean saved = false;
+			byte word[] = find.word;
 			int wlen = word.length;
-			Word find = new Word(word);
-			startTimer();
 			if (wlen < 3)
 			{
 				player.sendMessage("Words must be at least three letters");
 				return false;
 			}
 			// is it a word?
-			SolutionSet ss = source.getWords(word);
-			if (!ss.contains(word))
+			if (find.getId() < 0)
 			{
 				String msg = "'"+find+"' is not a word";
 				if (endgame)
@@ -1497,8 +4533,7 @@ debug(this+" removePlayer "+player+" spectator("+player.isSpectator()+") from "+
 				return false;
 			}
 			// is it in the pool?
-			int poolMatches = pool.markMatches(find);
-			if (poolMatches == wlen)
+			if (find.letters().isSubsetOf(pool.letters()))
 			{
 				if (player.maxWords())
 				{
@@ -1508,52 +4543,34 @@ debug(this+" removePlayer "+player+" spectator("+player.isSpectator()+") from "+
 				else
 				{
 					broadcast(player+" took '"+new String(word)+"'");
-					pool.takeMarked();
-					sendTiles();
+					pool.take(find.letters());
+					tilesTaken();
 					take(player, find);
 					return true;
 				}
 			}
-			// look for most letter matches in Player Words
+			// table words spelled entirely from the letters of find
 			ArrayList match = new ArrayList();
-			for (Iterator i = words.iterator(); i.hasNext(); ) {
-				Word w = (Word)i.next();
-				if (w.length() > wlen)
-				{
-					continue;
-				}
-				int mlen = w.markMatches(find, true);
-				w.clearMarks();
-				if (mlen < w.length())
-				{
-					continue;
-				}
-				match.add(w);
-			}
+			words.within(find, match);
 			// if any words match, walk the list longest to shortest
 			if (match.size() > 0)
 			{
-				Word words[] = new Word[match.size()];
-				match.toArray(words);
-				Arrays.sort(words, comp);
 				//debug("words w/ matches : "+match);
-				for (int i=0; i<words.length; i++)
+				for (int i=0; i<match.size(); i++)
 				{
-					Word w = words[i];
-					int m = find.markMatches(w, true);
-					int p = pool.markMatches(find);
-					//debug("testing '"+w+"' match="+m+" pool="+p);
-					find.clearMarks();
+					Word w = (Word)match.get(i);
+					// letters find adds to w
+					LetterHistogram need = find.letters().minus(w.letters());
 					// check if we can steal (no used permutations)
-					if (m == wlen)
+					if (need.isEmpty())
 					{
-						if (source.noPlurals() && w.isPluralPermutation(find))
+						if (history.contains(w.getLineage(), find.getStem()))
 						{
 							player.sendMessage("you cannot steal/defend by making a plural");
 							saved = true;
 							continue;
 						}
-						if (w.isWordUsed(find))
+						if (!history.isUsed(w, find.getId()))
 						{
 							Player op = w.getPlayer();
 							if (op == player)
@@ -1586,16 +4603,16 @@ debug(this+" removePlayer "+player+" spectator("+player.isSpectator()+") from "+
 						}
 					}
 					else
-					if (source.noPlurals() && m == wlen - 1 && (w.toString()+'s').equals(find.toString()))
+					if (w.getId() >= 0 && find.getStem() == w.getId())
 					{
 						player.sendMessage("you cannot steal/defend by making a plural");
 						saved = true;
 						continue;
 					}
-					if (m+p == wlen)
+					if (need.isSubsetOf(pool.letters()))
 					{
-						pool.takeMarked();
-						sendTiles();
+						pool.take(need);
+						tilesTaken();
 						Player op = w.getPlayer();
 						if (op == player)
 						{
@@ -1616,6 +4633,33 @@ debug(this+" removePlayer "+player+" spectator("+player.isSpectator()+") from "+
 					}
 				}
 			}
+			// try two or more table words together with the pool
+			if (match.size() > 1)
+			{
+				ArrayList parts = new ArrayList();
+				LetterHistogram need = words.combine(find.letters(), match, pool.letters(), parts);
+				if (need != null)
+				{
+					if (player.maxWords())
+					{
+						player.sendMessage("you've reached your word limit");
+						return false;
+					}
+					StringBuffer names = new StringBuffer();
+					for (int i=0; i<parts.size(); i++)
+					{
+						names.append(i == 0 ? "'" : i < parts.size() - 1 ? ", '" : " and '").append(parts.get(i)).append("'");
+					}
+					broadcast(player+" combined "+names+" into '"+find+"'");
+					if (!need.isEmpty())
+					{
+						pool.take(need);
+						tilesTaken();
+					}
+					merge(player, parts, find);
+					return true;
+				}
+			}
 			// saved is set if in grace period or used match
 			// or attempted plural
 			if (!saved)
@@ -1645,177 +4689,332 @@ debug(this+" removePlayer "+player+" spectator("+player.isSpectator()+") from "+
 
 
 	// ----------------------------------------------------------------------
-	// ---( INNER CLASS WordComp )---
+	// ---( INNER CLASS Lineage )---
 	// ----------------------------------------------------------------------
-	private class WordComp implements Comparator
+	/**
+	 * The history of the words on a game's table. Every word taken from
+	 * the pool starts a lineage, and each steal adds the id of the word
+	 * it replaced, so asking whether a word has been used in a lineage is
+	 * one probe of an open addressed table of (lineage, word id) pairs.
+	 * Each lineage also chains its ids so it can be merged into another.
+	 * Only used from the game's loop.
+	 */
+	private class Lineage
 	{
-		public int compare(Object w1, Object w2) {
-			Word o1 = (Word)w1;
-			Word o2 = (Word)w2;
-			int l1 = o1.length();
-			int l2 = o2.length();
-			if (l1 == l2)
+		private long keys[] = new long[64];
+		private int size;
+		private int heads[] = new int[16];
+		private int lineages;
+		private int ids[] = new int[32];
+		private int next[] = new int[32];
+		private int entries;
+
+		/**
+		 * @return a new empty lineage
+		 */
+		public int open()
+		{
+			if (lineages == heads.length)
 			{
-				return 0;
+				heads = Arrays.copyOf(heads, lineages * 2);
 			}
-			if (l1 > l2)
+			heads[lineages] = -1;
+			return lineages++;
+		}
+
+		private long key(int lineage, int id)
+		{
+			return ((long)(lineage + 1) << 32) | (id & 0xffffffffL);
+		}
+
+		private int slot(long key)
+		{
+			long h = key * 0x9e3779b97f4a7c15L;
+			return (int)(h ^ (h >>> 32)) & (keys.length - 1);
+		}
+
+		public boolean contains(int lineage, int id)
+		{
+			if (lineage < 0 || id < 0)
 			{
-				return 1;
+				return false;
 			}
-			else
+			long k = key(lineage, id);
+			for (int pos = slot(k); keys[pos] != 0; pos = (pos + 1) & (keys.length - 1))
 			{
-				return -1;
+				if (keys[pos] == k)
+				{
+					return true;
+				}
 			}
+			return false;
 		}
-	}
 
-
-
-	// ----------------------------------------------------------------------
-	// ---( INNER CLASS Word )---
-	// ----------------------------------------------------------------------
-	private class Pool
-	{
-		private int tiles[] = {
-			'a', 'a', 'a', 'a', 'a', 'a', 'a', 'a', 'a',
-			'b', 'b',
-			'c', 'c',
-			'd', 'd', 'd', 'd',
-			'e', 'e', 'e', 'e', 'e', 'e', 'e', 'e', 'e', 'e', 'e', 'e', 
-			'f', 'f',
-			'g', 'g', 'g',
-			'h', 'h',
-			'i', 'i', 'i', 'i', 'i', 'i', 'i', 'i', 'i',
-			'j',
-			'k',
-			'l', 'l', 'l', 'l',
-			'm', 'm',
-			'n', 'n', 'n', 'n', 'n', 'n',
-			'o', 'o', 'o', 'o', 'o', 'o', 'o', 'o',
-			'p', 'p',
-			'q',
-			'r', 'r', 'r', 'r', 'r', 'r',
-			's', 's', 's', 's',
-			't', 't', 't', 't', 't', 't',
-			'u', 'u', 'u', 'u',
-			'v', 'v',
-			'w', 'w',
-			'x',
-			'y', 'y',
-			'z'
-		};
-		private int numtiles = tiles.length;
-		private int showing;
-		private boolean moreTiles;
-
-		private int HIDE = 0;
-		private int SHOW = 1 << 8;
-		private int TAKE = 1 << 9;
-		private int MARK = 1 << 10;
-
-		private int XSHOW = SHOW ^ 0xffff;
-		private int XTAKE = TAKE ^ 0xffff;
-		private int XMARK = MARK ^ 0xffff;
-
-		public Pool()
+		/**
+		 * @return true if the word with this id is w or has been w
+		 */
+		public boolean isUsed(Word w, int id)
 		{
-			scramble();
-			moreTiles = true;
+			return w.getId() == id || contains(w.getLineage(), id);
 		}
 
-		private void scramble()
+		/**
+		 * Records that a word in lineage has been the word with this id.
+		 */
+		public void add(int lineage, int id)
 		{
-			startTimer();
-			Random r = new Random();
-			int count = (int)(Math.abs(r.nextDouble())*1500)+1500;
-			for (int i=0; i<count; i++)
+			if (lineage < 0 || id < 0 || contains(lineage, id))
 			{
-				int n1 = (int)(Math.abs(r.nextDouble())*tiles.length);
-				int n2 = (int)((r.nextDouble())*tiles.length);
-				if (n1 != n2)
-				{
-					int tmp = tiles[n1];
-					tiles[n1] = tiles[n2];
-					tiles[n2] = tmp;
-				}
+				return;
 			}
-			for (int i=0; i<tiles.length; i++)
+			if ((size + 1) * 2 > keys.length)
 			{
-				if (!isShowing(i))
+				long old[] = keys;
+				keys = new long[old.length * 2];
+				for (int i=0; i<old.length; i++)
 				{
-					for (int j=i+1; j<tiles.length; j++)
+					if (old[i] != 0)
 					{
-						if (isShowing(j))
-						{
-							int tmp = tiles[i];
-							tiles[i] = tiles[j];
-							tiles[j] = tmp;
-						}
+						insert(old[i]);
 					}
 				}
 			}
-			//debug("scrambled pool x"+count+" in "+checkTimer()+"ms");
+			insert(key(lineage, id));
+			size++;
+			if (entries == ids.length)
+			{
+				ids = Arrays.copyOf(ids, entries * 2);
+				next = Arrays.copyOf(next, entries * 2);
+			}
+			ids[entries] = id;
+			next[entries] = heads[lineage];
+			heads[lineage] = entries++;
 		}
 
-		public int numShowing()
+		private void insert(long k)
 		{
-			return showing;
+			int pos = slot(k);
+			while (keys[pos] != 0)
+			{
+				pos = (pos + 1) & (keys.length - 1);
+			}
+			keys[pos] = k;
+		}
+
+		/**
+		 * Copies every id used in lineage from into lineage into.
+		 */
+		public void merge(int into, int from)
+		{
+			if (into < 0 || from < 0 || into == from)
+			{
+				return;
+			}
+			for (int e = heads[from]; e >= 0; e = next[e])
+			{
+				add(into, ids[e]);
+			}
 		}
+	}
+
+
+
+	// ----------------------------------------------------------------------
+	// ---( INNER CLASS StealIndex )---
+	// ----------------------------------------------------------------------
+	/**
+	 * The words on a game's table, indexed so a take can find the words it
+	 * might steal without testing every one of them. Each word sits in a
+	 * slot, and per letter and per length bitsets over the slots let a
+	 * query drop every word holding a letter the take lacks before any
+	 * counts are compared. Only used from the game's loop.
+	 */
+	private class StealIndex
+	{
+		private final static int MAXCOMBINE = 2000;
 
-		private void show(int tile)
+		private Word slots[] = new Word[16];
+		private BitSet live = new BitSet();
+		private BitSet letters[] = new BitSet[26];
+		private ArrayList lengths = new ArrayList();
+		private BitSet scratch = new BitSet();
+		private int steps;
+
+		StealIndex()
 		{
-			tiles[tile] = tiles[tile] | SHOW;
-			showing++;
+			for (int i=0; i<letters.length; i++)
+			{
+				letters[i] = new BitSet();
+			}
 		}
 
-		private void unshow(int tile)
+		public void add(Word word)
 		{
-			tiles[tile] = tiles[tile] & XSHOW;
-			showing--;
+			int slot = live.nextClearBit(0);
+			if (slot == slots.length)
+			{
+				slots = Arrays.copyOf(slots, slots.length * 2);
+			}
+			slots[slot] = word;
+			word.setSlot(slot);
+			live.set(slot);
+			for (int mask = word.letters().mask(); mask != 0; mask &= mask - 1)
+			{
+				letters[Integer.numberOfTrailingZeros(mask)].set(slot);
+			}
+			while (lengths.size() <= word.length())
+			{
+				lengths.add(new BitSet());
+			}
+			((BitSet)lengths.get(word.length())).set(slot);
 		}
 
-		private boolean isShowing(int tile)
+		public void remove(Word word)
 		{
-			return (tiles[tile] & SHOW) == SHOW;
+			int slot = word.getSlot();
+			if (slot < 0 || slot >= slots.length || slots[slot] != word)
+			{
+				return;
+			}
+			slots[slot] = null;
+			word.setSlot(-1);
+			live.clear(slot);
+			for (int i=0; i<letters.length; i++)
+			{
+				letters[i].clear(slot);
+			}
+			((BitSet)lengths.get(word.length())).clear(slot);
 		}
 
-		private void take(int tile)
+		/**
+		 * Adds to out every table word whose letters are a sub-multiset
+		 * of find's, longest first.
+		 */
+		public void within(Word find, ArrayList out)
 		{
-			tiles[tile] = tiles[tile] | TAKE;
-			if (isShowing(tile))
+			BitSet cand = scratch;
+			cand.clear();
+			cand.or(live);
+			int absent = ~find.letters().mask() & ((1 << 26) - 1);
+			for (; absent != 0 && !cand.isEmpty(); absent &= absent - 1)
+			{
+				cand.andNot(letters[Integer.numberOfTrailingZeros(absent)]);
+			}
+			if (cand.isEmpty())
 			{
-				unshow(tile);
+				return;
+			}
+			for (int len = Math.min(find.length(), lengths.size() - 1); len > 0; len--)
+			{
+				BitSet bylen = (BitSet)lengths.get(len);
+				for (int i = bylen.nextSetBit(0); i >= 0; i = bylen.nextSetBit(i + 1))
+				{
+					if (cand.get(i) && slots[i].isWithin(find))
+					{
+						out.add(slots[i]);
+					}
+				}
 			}
 		}
 
-		private void untake(int tile)
+		/**
+		 * Looks for two or more candidate words that together with pool
+		 * tiles spell want exactly. The search tries longer words first
+		 * and gives up after MAXCOMBINE steps, so a crowded table cannot
+		 * hold up the game's loop for long.
+		 *
+		 * @param cands words within want, longest first, from within()
+		 * @param parts receives the words used
+		 * @return the letters to take from the pool or null if none fit
+		 */
+		public LetterHistogram combine(LetterHistogram want, ArrayList cands, LetterHistogram pool, ArrayList parts)
+		{
+			steps = MAXCOMBINE;
+			return combine(want, cands, 0, pool, parts);
+		}
+
+		private LetterHistogram combine(LetterHistogram left, ArrayList cands, int from, LetterHistogram pool, ArrayList parts)
 		{
-			tiles[tile] = tiles[tile] & XTAKE;
+			if (parts.size() > 1 && left.isSubsetOf(pool))
+			{
+				return left;
+			}
+			int size = left.size();
+			for (int i=from; i<cands.size() && --steps >= 0; i++)
+			{
+				Word w = (Word)cands.get(i);
+				if (w.length() > size || !w.letters().isSubsetOf(left))
+				{
+					continue;
+				}
+				parts.add(w);
+				LetterHistogram need = combine(left.minus(w.letters()), cands, i + 1, pool, parts);
+				if (need != null)
+				{
+					return need;
+				}
+				parts.remove(parts.size() - 1);
+			}
+			return null;
 		}
+	}
+
+
+
+	// ----------------------------------------------------------------------
+	// ---( INNER CLASS Word )---
+	// ----------------------------------------------------------------------
+	/**
+	 * The letter tiles of one game. Hidden tiles wait in a shuffled draw
+	 * bag, showing tiles are kept both as a LetterHistogram, for matching
+	 * words, and as a list in the order they were dealt, for display.
+	 * Tiles held in players' words are not tracked here until a lost word
+	 * hands them back with reAdd().
+	 */
+	private class Pool
+	{
+		private final static int MAXSHOWING = 52;
 
-		private boolean isTaken(int tile)
-		{
-			return (tiles[tile] & TAKE) == TAKE;
-		}
+		private final byte TILES[] = (
+			"aaaaaaaaa" + "bb" + "cc" + "dddd" + "eeeeeeeeeeee" + "ff" + "ggg" +
+			"hh" + "iiiiiiiii" + "j" + "k" + "llll" + "mm" + "nnnnnn" +
+			"oooooooo" + "pp" + "q" + "rrrrrr" + "ssss" + "tttttt" + "uuuu" +
+			"vv" + "ww" + "x" + "yy" + "z").getBytes();
 
-		private void mark(int tile)
-		{
-			tiles[tile] = tiles[tile] | MARK;
-		}
+		private byte bag[] = new byte[TILES.length];
+		private int hidden;
+		private byte shown[] = new byte[TILES.length];
+		private int showing;
+		private LetterHistogram letters = LetterHistogram.EMPTY;
+		private int claim[] = new int[26];
+		private int taken[] = new int[26];
+		private boolean moreTiles;
+		private Random random = new Random();
+		private ArrayList changes = new ArrayList();
 
-		private void unmark(int tile)
+		public Pool()
 		{
-			tiles[tile] = tiles[tile] & XMARK;
+			for (int i=0; i<TILES.length; i++)
+			{
+				returnTile(TILES[i]);
+			}
+			moreTiles = true;
 		}
 
-		private boolean isMarked(int tile)
+		/**
+		 * Puts a tile in the bag at a random place. Doing this for each
+		 * tile keeps the bag a uniform shuffle without reshuffling it.
+		 */
+		private void returnTile(byte letter)
 		{
-			return (tiles[tile] & MARK) == MARK;
+			int pos = random.nextInt(hidden + 1);
+			bag[hidden++] = bag[pos];
+			bag[pos] = letter;
 		}
 
-		private byte getTile(int tile)
+		public int numShowing()
 		{
-			return (byte)(tiles[tile] & 0xff);
+			return showing;
 		}
 
 		public boolean hasMoreTiles()
@@ -1823,137 +5022,128 @@ debug(this+" removePlayer "+player+" spectator("+player.isSpectator()+") from "+
 			return moreTiles;
 		}
 
-		public boolean deal()
+		public synchronized boolean deal()
 		{
-			int count = 0;
-			for (int i=0; i<tiles.length; i++)
+			if (showing >= MAXSHOWING)
 			{
-				if (isShowing(i) && !isTaken(i) && ++count >= 52)
-				{
-					return false;
-				}
-				if (!(isShowing(i) || isTaken(i)))
-				{
-					show(i);
-					return true;
-				}
+				return false;
 			}
-			moreTiles = false;
-			return false;
-		}
-
-		public void reAdd(Word word)
-		{
-			byte letters[] = word.word;
-			for (int i=0; i<letters.length; i++)
+			if (hidden == 0)
 			{
-				reAdd(letters[i]);
-				moreTiles = true;
+				moreTiles = false;
+				return false;
 			}
-			scramble();
+			byte letter = bag[--hidden];
+			changes.add(new String[] { "add", Integer.toString(showing), new String(bag, hidden, 1) });
+			shown[showing++] = letter;
+			letters = letters.plus(letter - base);
+			return true;
 		}
 
-		public void reAdd(byte letter)
+		/**
+		 * @return the changes to the showing tiles since the last call,
+		 * each as "add" position letter or "del" position..., with
+		 * positions counted before the change
+		 */
+		public synchronized String[][] takeChanges()
 		{
-			for (int i=0; i<numtiles; i++)
-			{
-				if (isTaken(i) && (getTile(i) == letter))
-				{
-					untake(i);
-					return;
-				}
-			}
+			String c[][] = new String[changes.size()][];
+			changes.toArray(c);
+			changes.clear();
+			return c;
 		}
 
-		private byte[] getPool()
+		/**
+		 * Returns the letters of a lost word to the bag. Only tiles this
+		 * pool has handed out come back, so a word from an earlier round
+		 * cannot overfill the bag.
+		 */
+		public synchronized void reAdd(Word word)
 		{
-			int pos = 0;
-			byte b[] = new byte[showing];
-			for (int i=0; i<numtiles; i++)
+			byte letters[] = word.word;
+			for (int i=0; i<letters.length; i++)
 			{
-				if (isShowing(i))
+				int l = letters[i] - base;
+				if (l < 0 || l > 25 || taken[l] == 0 || hidden == bag.length)
 				{
-					b[pos++] = getTile(i);
+					continue;
 				}
+				taken[l]--;
+				returnTile(letters[i]);
+				moreTiles = true;
 			}
-			return b;
 		}
 
-		public String getTilesString()
+		public synchronized String getTilesString()
 		{
-			return new String(getPool());
+			return new String(shown, 0, showing);
 		}
 
-		private void clearMarks()
+		/**
+		 * @return the letters showing
+		 */
+		public synchronized LetterHistogram letters()
 		{
-			for (int i=0; i<numtiles; i++)
-			{
-				unmark(i);
-			}
+			return letters;
 		}
 
-		private void takeMarked()
+		/**
+		 * Takes the given letters out of the showing tiles, keeping the
+		 * rest in the order they were dealt.
+		 *
+		 * @return false, taking nothing, if they are not all showing
+		 */
+		public synchronized boolean take(LetterHistogram need)
 		{
-			boolean rescramble = false;
-			for (int i=0; i<numtiles; i++)
+			if (!need.isSubsetOf(letters))
 			{
-				if (isMarked(i))
-				{
-					take(i);
-					unmark(i);
-					rescramble = true;
-				}
+				return false;
 			}
-			if (rescramble)
+			if (need.isEmpty())
 			{
-				scramble();
+				return true;
 			}
-		}
-
-		private int markMatches(Word find)
-		{
-			clearMarks();
-			byte word[] = find.word;
-			int marked = 0;
-			for (int i=0; i<word.length; i++)
+			letters = letters.minus(need);
+			for (int i=0; i<26; i++)
 			{
-				if (find.isMarked(word[i]))
+				claim[i] = need.count(i);
+				taken[i] += claim[i];
+			}
+			String del[] = new String[need.size()+1];
+			int d = 0;
+			del[d++] = "del";
+			int keep = 0;
+			for (int i=0; i<showing; i++)
+			{
+				int l = shown[i] - base;
+				if (claim[l] > 0)
 				{
+					claim[l]--;
+					del[d++] = Integer.toString(i);
 					continue;
 				}
-				for (int j=0; j<numtiles; j++)
-				{
-					if (isShowing(j) && !isMarked(j) && getTile(j) == word[i])
-					{
-						mark(j);
-						marked++;
-						break;
-					}
-				}
+				shown[keep++] = shown[i];
 			}
-			return marked;
+			changes.add(del);
+			showing = keep;
+			return true;
 		}
 
 		private void print()
 		{
 			System.out.println("---- pool("+showing+") ----");
-			int count = 0;
 			int line = 0;
-			for (int i=0; i<tiles.length; i++)
+			for (int i=0; i<showing; i++)
 			{
-				if (isShowing(i) && !isTaken(i))
+				if (i >= 4 && i % 4 == 0)
 				{
-					count++;
-					if (count > 4 && count % 4 == 1)
+					System.out.println();
+					if ((++line % 2 == 1))
 					{
-						System.out.println();
-						if ((++line % 2 == 1))
-						{
-							System.out.print("  ");
-						}
+						System.out.print("  ");
 					}
-					System.out.print((char)(tiles[i]&0xdf)+"   ");
 				}
+				System.out.print((char)(shown[i]&0xdf)+"   ");
 			}
 			System.out.println();
 		}
@@ -1965,15 +5155,15 @@ debug(this+" removePlayer "+player+" spectator("+player.isSpectator()+") from "+
 	// ----------------------------------------------------------------------
 	private class Word
 	{
-		private final byte MARK = (byte)0x80;
-		private final byte XMARK = (byte)(MARK ^ 0xff);
-
 		private byte word[];
+		private LetterHistogram letters;
 		private Word next;
-		private int marked;
 		private int hashcode;
+		private int id = -1;
+		private int stem = -1;
+		private int slot = -1;
+		private int lineage = -1;
 		private Player player;
-		private LinkedList used;
 
 		public Word(String word)
 		{
@@ -1983,7 +5173,6 @@ debug(this+" removePlayer "+player+" spectator("+player.isSpectator()+") from "+
 		public Word(byte word[])
 		{
 			setBytes(word);
-			this.used = new LinkedList();
 		}
 
 		public void setPlayer(Player player)
@@ -1996,158 +5185,118 @@ debug(this+" removePlayer "+player+" spectator("+player.isSpectator()+") from "+
 			return player;
 		}
 
-		/*
-		 * new permutation or derived word
+		/**
+		 * Sets the word's id in the game's dictionary.
 		 */
-		public void update(Word newword)
+		public void setId(int id)
 		{
-			used.add(new Word(word));
-			setBytes(newword.word);
+			this.id = id;
 		}
-		
-		private void setBytes(byte b[])
+
+		public int getId()
 		{
-			word = b;
-			hashcode = new String(b).hashCode();
+			return id;
 		}
 
-		public boolean isWordUsed(Word steal)
+		/**
+		 * Sets the id of the word this is the plural of, when the
+		 * dictionary forbids plural steals.
+		 */
+		public void setStem(int stem)
 		{
-			if (equals(steal))
-			{
-				return false;
-			}
-			for (Iterator i = used.iterator(); i.hasNext(); ) {
-				Word w = (Word)i.next();
-				if (w.equals(steal))
-				{
-					return false;
-				}
-			}
-			return true;
+			this.stem = stem;
 		}
 
-		public boolean isPluralPermutation(Word steal)
+		public int getStem()
 		{
-			String ss = steal.toString();
-			if (!ss.endsWith("s"))
-			{
-				return false;
-			}
-			int slen = steal.length() - 1;
-			String match = ss.substring(0,slen);
-			for (Iterator i = used.iterator(); i.hasNext(); ) {
-				Word w = (Word)i.next();
-				if (w.length() == slen && w.toString().equals(match))
-				{
-					return true;
-				}
-			}
-			return false;
+			return stem;
 		}
 
-		public int hashCode()
+		/**
+		 * Sets the word's slot in its game's StealIndex, -1 if none.
+		 */
+		public void setSlot(int slot)
 		{
-			return hashcode;
+			this.slot = slot;
 		}
 
-		public boolean equals(Object o)
+		public int getSlot()
 		{
-			if (o instanceof Word)
-			{
-				return equalsWord((Word)o);
-			}
-			else
-			{
-				return false;
-			}
+			return slot;
 		}
 
-		private boolean equalsWord(Word check)
+		/**
+		 * @return the word's letters or null if it is not spelled
+		 * from a-z alone
+		 */
+		public LetterHistogram letters()
 		{
-			byte cmp[] = check.word;
-			if (word.length != cmp.length)
-			{
-				return false;
-			}
-			for (int i=0; i<cmp.length; i++)
-			{
-				if (clearMark(word[i]) != clearMark(cmp[i]))
-				{
-					return false;
-				}
-			}
-			return true;
+			return letters;
 		}
 
-		// --( letter flag methods )--
-		private byte mark(int letter)
+		/**
+		 * @return true if every letter of this word, with repeats, is in outer
+		 */
+		public boolean isWithin(Word outer)
 		{
-			return (byte)(letter | MARK);
+			return letters != null && outer.letters != null && letters.isSubsetOf(outer.letters);
 		}
 
-		private boolean isMarked(int letter)
+		/**
+		 * Sets the word's lineage in its game's history, -1 if none.
+		 */
+		public void setLineage(int lineage)
 		{
-			return (letter & MARK) == MARK;
+			this.lineage = lineage;
 		}
 
-		private boolean isAvailable(byte letter)
+		public int getLineage()
 		{
-			return (letter > 0 && !isMarked(letter));
+			return lineage;
 		}
 
-		private byte clearMark(byte letter)
+		/*
+		 * new permutation or derived word, the game's history keeps
+		 * what it was
+		 */
+		public void update(Word newword)
+		{
+			setBytes(newword.word);
+			id = newword.id;
+			stem = newword.stem;
+		}
+		
+		private void setBytes(byte b[])
 		{
-			return (byte)(letter & XMARK);
+			word = b;
+			hashcode = Arrays.hashCode(b);
+			letters = LetterHistogram.of(b);
 		}
 
-		public int numMarked()
+		public int hashCode()
 		{
-			return marked;
+			return hashcode;
 		}
 
-		public void clearMarks()
+		public boolean equals(Object o)
 		{
-			if (marked > 0)
+			if (o instanceof Word)
 			{
-				for (int i=0; i<word.length; i++)
-				{
-					word[i] = clearMark(word[i]);
-				}
-				marked = 0;
+				return equalsWord((Word)o);
+			}
+			else
+			{
+				return false;
 			}
 		}
 
-		public int markMatches(Word check, boolean clear)
+		private boolean equalsWord(Word check)
 		{
-			if (clear)
-			{
-				clearMarks();
-			}
-			int match = 0;
-			byte cword[] = check.word;
-			for (int i=0; i<cword.length; i++)
+			if (id >= 0 && check.id >= 0)
 			{
-				if (isMarked(cword[i]))
-				{
-					continue;
-				}
-				for (int j=0; j<word.length; j++)
-				{
-					if (isMarked(word[j]))
-					{
-						continue;
-					}
-					if (cword[i] == word[j])
-					{
-						word[j] = mark(word[j]);
-						match++;
-						break;
-					}
-				}
+				return id == check.id;
 			}
-			marked += match;
-			return match;
+			return Arrays.equals(word, check.word);
 		}
 
 		public Word getNext()
@@ -2178,7 +5327,7 @@ debug(this+" removePlayer "+player+" spectator("+player.isSpectator()+") from "+
 	private class Player extends ScrambleLink
 	{
 		private MetaServer server;
-		private Game game;
+		private volatile Game game;
 		private String name;
 		private LinkedList words;
 		private boolean setName;
@@ -2187,6 +5336,7 @@ debug(this+" removePlayer "+player+" spectator("+player.isSpectator()+") from "+
 		private long reserve;
 		private String uuid;
 		private String site;
+		private boolean poolDeltas;
 
 		public Player(MetaServer server)
 		{
@@ -2201,9 +5351,17 @@ debug(this+" removePlayer "+player+" spectator("+player.isSpectator()+") from "+
 			debug("connect ("+hostname()+")");
 		}
 
+		/**
+		 * @return true if this player asked for pool changes instead of
+		 * the whole pool with 'other pooldelta'
+		 */
+		public boolean wantsPoolDeltas()
+		{
+			return poolDeltas;
+		}
+
 		public void joinGame(Game game, boolean spectator)
 		{
-			this.game = game;
 			this.words = new LinkedList();
 			this.ready = false;
 			this.spectator = spectator;
@@ -2261,6 +5419,11 @@ debug(this+" removePlayer "+player+" spectator("+player.isSpectator()+") from "+
 
 		public void reset()
 		{
+			for (Iterator i = words.iterator(); i.hasNext(); ) {
+				Word w = (Word)i.next();
+				w.setSlot(-1);
+				w.setLineage(-1);
+			}
 			words = new LinkedList();
 		}
 
@@ -2348,9 +5511,10 @@ debug(this+" removePlayer "+player+" spectator("+player.isSpectator()+") from "+
 			{
 				debug("disconnect '"+this+"'");
 			}
-			if (game != null)
+			Game g = game;
+			if (g != null)
 			{
-				game.removePlayer(this);
+				g.removePlayer(this);
 			}
 			server.removePlayer(this);
 			super.linkDown(onError);
@@ -2503,11 +5667,12 @@ debug(this+" removePlayer "+player+" spectator("+player.isSpectator()+") from "+
 
 		public void CMD_leave(String args[])
 		{
-			if (game != null)
+			Game g = game;
+			if (g != null)
 			{
-				game.removePlayer(this);
-				server.leaveGame(this, game.getName());
 				game = null;
+				g.removePlayer(this);
+				server.leaveGame(this, g.getName());
 			}
 		}
 
@@ -2532,6 +5697,10 @@ debug(this+" removePlayer "+player+" spectator("+player.isSpectator()+") from "+
 					Integer.parseInt(args[2]),
 					args.length > 3 ? args[3] : "Default"
 				);
+			} catch (IOException e) {
+				debug("new game failed : "+e.getMessage());
+				sendMessage("The dictionary '"+(args.length > 3 ? args[3] : "Default")+"' is not available");
+				return;
 			} catch (Exception e) {
 				e.printStackTrace();
 				sendMessage("Internal error creating game");
@@ -2570,14 +5739,15 @@ debug(this+" removePlayer "+player+" spectator("+player.isSpectator()+") from "+
 				return;
 			}
 			boolean newstate = args[0].equals("true");
+			Game g = game;
+			if (g != null)
+			{
+				g.setReady(this, newstate);
+			}
+			else
 			if (newstate != ready)
 			{
 				setReady(newstate);
-				if (game != null)
-				{
-					game.sendAll(READY, new String[] { getName(), args[0] });
-					game.checkReady(this);
-				}
 			}
 		}
 		
@@ -2613,25 +5783,13 @@ debug(this+" removePlayer "+player+" spectator("+player.isSpectator()+") from "+
 				sendMessage("you're just a spectator. you can't play!");
 				return;
 			}
-			if (game.getState() != INPLAY)
+			Game g = game;
+			if (g == null)
 			{
-				sendMessage("whoa there, speedy! the game is not yet in play.");
 				return;
 			}
 			//game.debug("take : "+name+" : '"+toString(args)+"'");
-			try
-			{
-				if (game.takeWord(this, args[0].toLowerCase().getBytes()))
-				{
-					// we used to send tiles at this point
-					// game.sendTiles();
-				}
-			}
-			catch (Exception ex)
-			{
-				ex.printStackTrace();
-				sendMessage("'"+args[0]+"' is an illegal word");
-			}
+			g.requestTake(this, args[0].toLowerCase().getBytes(), getArrival());
 		}
 
 		public void CMD_other(String args[])
@@ -2648,6 +5806,45 @@ debug(this+" removePlayer "+player+" spectator("+player.isSpectator()+") from "+
 					debug("sysinfo ("+toString(args,1)+")");
 				}
 				else
+				if (args.length > 2 && args[0].equals("reload"))
+				{
+					if (adminKey == null || !adminKey.equals(args[1]))
+					{
+						debug("refused reload from "+this);
+						sendMessage("Reloading dictionaries is not allowed");
+					}
+					else
+					if (dict.reload(args[2]))
+					{
+						debug("reload of '"+args[2]+"' requested by "+this);
+						sendMessage("Reloading dictionary '"+args[2]+"'");
+					}
+					else
+					{
+						sendMessage("The dictionary '"+args[2]+"' cannot be reloaded now");
+					}
+				}
+				else
+				if (args[0].equals("pooldelta") || args[0].equals("poolsync"))
+				{
+					// a client that sees a gap in the sequence asks again
+					poolDeltas = true;
+					if (game != null)
+					{
+						game.sendSnapshot(this);
+					}
+				}
+				else
+				if (args[0].equals("stats"))
+				{
+					String stats[] = dict.getStats();
+					for (int i=0; i<stats.length; i++)
+					{
+						debug("stats : "+stats[i]);
+						sendMessage(stats[i]);
+					}
+				}
+				else
 				{
 					debug("other : "+toString(args));
 				}
@@ -2665,13 +5862,12 @@ debug(this+" removePlayer "+player+" spectator("+player.isSpectator()+") from "+
 			{
 				sendCommand("(-)", ss.getWords());
 			}
+			String ext[][] = game.source.getExtensions(args[0], null);
 			for (int i=0; i<26; i++)
 			{
-				char add = (char)('a'+i);
-				ss = game.source.getWords(args[0]+add);
-				if (ss.size() > 0)
+				if (ext[i] != null)
 				{
-					sendCommand("  ("+add+")", ss.getWords());
+					sendCommand("  ("+(char)('a'+i)+")", ext[i]);
 				}
 			}
 		}
@@ -2719,7 +5915,7 @@ debug(this+" removePlayer "+player+" spectator("+player.isSpectator()+") from "+
 			this.game = game;
 			this.players = new HashMap();
 			this.pwords = new HashMap();
-			this.source = (WordSource) dict.get("default");
+			this.source = dict.get("default");
 			this.readyWait = 0;
 			this.pool = "";
 			this.level = level;
@@ -2834,33 +6030,17 @@ debug(this+" removePlayer "+player+" spectator("+player.isSpectator()+") from "+
 			// guess from pool only
 			if (pool.length() >= tuneMinPoolSize)
 			{
-				byte b[] = new byte[3 + (r.nextDouble() > 0.75 ? 1 : 0)];
-				byte bp[] = pool.getBytes();
-				for (int j=0; !guess && j<bp.length/4; j++)
+				String words[] = source.getWordsWithin(pool, 3, 3 + (r.nextDouble() > 0.75 ? 1 : 0), 100);
+				if (words.length > 0)
 				{
-					for (int i=0; i<b.length; )
-					{
-						int pos = (int)(r.nextDouble() * bp.length);
-						if (bp[pos] != 0)
-						{
-							b[i++] = bp[pos];
-							bp[pos] = 0;
-						}
-					}
-					SolutionSet ss = source.getWords(b);
-					String words[] = ss.getWords();
-					if (words.length > 0)
-					{
 //debug("guess from pool : "+toString(words));
-						sendTake(words[(int)(r.nextDouble() * words.length)]);
-						guess = true;
-					}
+					sendTake(words[(int)(r.nextDouble() * words.length)]);
+					guess = true;
 				}
 			}
 			// guess from players stash or stash + pool (50/50)
 			if (!guess)
 			{
-				byte bp[] = pool.getBytes();
 				for (Iterator e = pwords.values().iterator(); !guess && e.hasNext(); )
 				{
 					if (r.nextDouble() < tuneMiss)
@@ -2876,12 +6056,10 @@ debug(this+" removePlayer "+player+" spectator("+player.isSpectator()+") from "+
 					String word = (String)v.get((int)(r.nextDouble() * v.size()));
 					if (r.nextDouble() > 0.5)
 					{
-						SolutionSet ss = source.getWords(word);
-						String words[] = ss.getWords();
-						if (words.length > 0)
+						SolutionSet ss = source.query(word.getBytes());
+						if (ss.size() > 0)
 						{
-//debug("guess word ("+word+") = "+toString(words));
-							sendTake(words[(int)(r.nextDouble() * words.length)]);
+							sendTake(ss.getWordString((int)(r.nextDouble() * ss.size())));
 							guess = true;
 						}
 					}
@@ -2891,25 +6069,7 @@ debug(this+" removePlayer "+player+" spectator("+player.isSpectator()+") from "+
 						{
 							continue;
 						}
-						byte wb[] = word.getBytes();
-						byte b[] = new byte[wb.length + 1];
-						System.arraycopy(wb,0,b,0,wb.length);
-						for (int i=0; i<bp.length && !guess; i++)
-						{
-							if (r.nextDouble() < tuneMiss)
-							{
-								continue;
-							}
-							b[wb.length] = bp[i];
-							SolutionSet ss = source.getWords(b);
-							String words[] = ss.getWords();
-							if (words.length > 0)
-							{
-//debug("guess word ("+word+") + pool ("+new String(bp)+") = "+toString(words));
-								sendTake(words[(int)(r.nextDouble() * words.length)]);
-								guess = true;
-							}
-						}
+						guess = guessExtension(word);
 					}
 				}
 			}
@@ -2920,6 +6080,28 @@ debug(this+" removePlayer "+player+" spectator("+player.isSpectator()+") from "+
 			}
 		}
 
+		/**
+		 * Tries to steal word by adding one pool letter to it. Each
+		 * letter that would work is missed with the tuned probability.
+		 *
+		 * @return true if a take was sent
+		 */
+		private boolean guessExtension(String word)
+		{
+			String ext[][] = source.getExtensions(word, pool);
+			for (int i=0; i<26; i++)
+			{
+				if (ext[i] == null || r.nextDouble() < tuneMiss)
+				{
+					continue;
+				}
+//debug("guess word ("+word+") + pool ("+pool+") = "+toString(ext[i]));
+				sendTake(ext[i][(int)(r.nextDouble() * ext[i].length)]);
+				return true;
+			}
+			return false;
+		}
+
 		public void CMD_hello(String args[])
 		{
 			sendHello();
@@ -2948,36 +6130,14 @@ debug(this+" removePlayer "+player+" spectator("+player.isSpectator()+") from "+
 			{
 				try { Thread.sleep((long)(500.0 + 1000.0 * r.nextDouble())); } catch (Exception ex) { ex.printStackTrace(); }
 				long start = System.currentTimeMillis();
-				SolutionSet ss = source.getWords(word);
-				String words[] = ss.getWords();
-				if (words.length > 1)
+				SolutionSet ss = source.query(word.getBytes());
+				if (ss.size() > 1)
 				{
-//debug("retake guess word ("+word+") = "+toString(words));
-					sendTake(words[(int)(r.nextDouble() * words.length)]);
+					sendTake(ss.getWordString((int)(r.nextDouble() * ss.size())));
 				}
 				else
 				{
-					boolean guess = false;
-					byte bp[] = pool.getBytes();
-					byte wb[] = word.getBytes();
-					byte b[] = new byte[wb.length + 1];
-					System.arraycopy(wb,0,b,0,wb.length);
-					for (int i=0; i<bp.length && !guess; i++)
-					{
-						if (r.nextDouble() < tuneMiss)
-						{
-							continue;
-						}
-						b[wb.length] = bp[i];
-						ss = source.getWords(b);
-						words = ss.getWords();
-//debug("retake guess word ("+word+") + pool ("+new String(bp)+") = "+toString(words));
-						if (words.length > 0)
-						{
-							sendTake(words[(int)(r.nextDouble() * words.length)]);
-							guess = true;
-						}
-					}
+					guessExtension(word);
 				}
 				long end = System.currentTimeMillis();
 				debug("retake guess time was : "+(end-start)+"ms");
@@ -3174,6 +6334,14 @@ debug(this+" removePlayer "+player+" spectator("+player.isSpectator()+") from "+
 		{
 			inPlay = false;
 			pwords.clear();
+			try
+			{
+				source = dict.get("default");
+			}
+			catch (IOException ex)
+			{
+				debug("keeping the current dictionary : "+ex);
+			}
 		}
 
 		public void handleCommand(String args[])
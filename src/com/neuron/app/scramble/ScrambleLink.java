@@ -27,6 +27,7 @@ public class ScrambleLink extends Link
 	public final static String TAKE        = "take";		// take word
 	public final static String LOSE        = "lose";		// lose word
 	public final static String POOL        = "pool";		// the letter pool
+	public final static String POOLDELTA   = "pooldelta";	// pool changes
 	public final static String PLAYER      = "player";		// player status
 	public final static String JOIN        = "join";		// player joins game
 	public final static String LEAVE       = "leave";		// leave game
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2001 Stewart Allen <stewart@neuron.com>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ */
+
+package com.neuron.app.scramble;
+
+// ---( imports )---
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * The histogram scan written against the incubating Vector API, so the
+ * subtract and OR of every letter column run a full register of words
+ * at a time whether or not the JIT would vectorize the plain loops.
+ * Each register of words is checked against all 26 columns before it is
+ * stored, where the byte loops make a pass over the block per letter.
+ * <p>
+ * It lives outside src so the server still builds without the module.
+ * Build it into the same classes and run with the module added:
+ * <pre>
+ * javac --add-modules jdk.incubator.vector -cp classes -d classes vector/com/neuron/app/scramble/VectorScanKernel.java
+ * java --add-modules jdk.incubator.vector -cp classes:src com.neuron.app.scramble.Scramble
+ * </pre>
+ * Scramble loads it by name and keeps its byte loops if it is missing.
+ */
+final class VectorScanKernel implements ScanKernel
+{
+	// ---( static fields )---
+	private final static VectorSpecies<Byte> SPECIES = ByteVector.SPECIES_PREFERRED;
+
+	// ---( instance methods )---
+	public String toString()
+	{
+		return "vector("+SPECIES.length()+" lanes)";
+	}
+
+	public void scan(byte counts[][], byte lengths[], int start, int len, byte have[], byte lo, byte hi, byte bad[])
+	{
+		int upper = SPECIES.loopBound(len);
+		int j = 0;
+		for (; j<upper; j+=SPECIES.length())
+		{
+			ByteVector n = ByteVector.fromArray(SPECIES, lengths, start+j);
+			ByteVector acc = n.sub(lo).or(ByteVector.broadcast(SPECIES, hi).sub(n));
+			for (int l=0; l<26; l++)
+			{
+				ByteVector col = ByteVector.fromArray(SPECIES, counts[l], start+j);
+				acc = acc.or(ByteVector.broadcast(SPECIES, have[l]).sub(col));
+			}
+			acc.intoArray(bad, j);
+		}
+		// the words left over after the last full register
+		for (; j<len; j++)
+		{
+			byte b = (byte)((lengths[start+j] - lo) | (hi - lengths[start+j]));
+			for (int l=0; l<26; l++)
+			{
+				b |= (byte)(have[l] - counts[l][start+j]);
+			}
+			bad[j] = b;
+		}
+	}
+}